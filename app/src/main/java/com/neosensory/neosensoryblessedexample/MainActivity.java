@@ -4,11 +4,14 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.os.Bundle;
 import android.Manifest;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.IBinder;
 import androidx.annotation.NonNull;
 import android.util.Log;
 import android.view.View;
@@ -16,7 +19,11 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.neosensory.neosensoryblessed.HapticSource;
 import com.neosensory.neosensoryblessed.NeosensoryBlessed;
+import com.neosensory.neosensoryblessed.NeosensoryBlessedService;
+
+import java.util.Arrays;
 
 public class MainActivity extends AppCompatActivity {
   // set string for filtering output for this activity in Logcat
@@ -31,16 +38,45 @@ public class MainActivity extends AppCompatActivity {
   // Constants
   private static final int ACCESS_LOCATION_REQUEST = 2;
   private static final int NUM_MOTORS = 4;
+  // One step of the vibrating pattern every 150 ms
+  private static final float PATTERN_FRAMES_PER_SECOND = 1000f / 150;
 
+  // The service hosting the connection and the pattern stream, so both survive this Activity
+  // being recreated (e.g. on rotation) or sent to the background
+  private NeosensoryBlessedService neoService = null;
   // Access the library to leverage the Neosensory API
   private NeosensoryBlessed blessedNeo = null;
 
   // Variable to track whether or not the wristband should be vibrating
-  private static boolean vibrating = false;
-  private static boolean disconnectRequested =
-      false; // used for requesting a disconnect within our thread
-  Runnable vibratingPattern;
-  Thread vibratingPatternThread;
+  private boolean vibrating = false;
+
+  private final ServiceConnection neoServiceConnection =
+      new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+          neoService = ((NeosensoryBlessedService.LocalBinder) service).getService();
+          // If the service already hosts a connection (e.g. this Activity was recreated), pick up
+          // where the previous Activity left off rather than reconnecting
+          blessedNeo = neoService.getNeosensoryBlessed();
+          if (blessedNeo != null) {
+            vibrating = neoService.isStreaming();
+            if (vibrating) {
+              neoVibrateButton.setText("Stop Vibration Pattern");
+            }
+            if (blessedNeo.getNeoCliReady()) {
+              displayVibrateButton();
+              displayDisconnectUI();
+            } else {
+              displayReconnectUI();
+            }
+          }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+          neoService = null;
+        }
+      };
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -59,55 +95,40 @@ public class MainActivity extends AppCompatActivity {
     } // Else, this function will have the system request permissions and handle displaying the
     // button in the callback onRequestPermissionsResult
 
-    // Create the vibrating pattern thread (but don't start it yet)
-    vibratingPattern = new VibratingPattern();
+    // register receivers so that NeosensoryBlessed can pass relevant messages and state changes to
+    // MainActivity, then attach to the service hosting the connection
+    registerReceiver(BlessedReceiver, new IntentFilter("BlessedBroadcast"));
+    NeosensoryBlessedService.bind(this, neoServiceConnection);
   }
 
-  // Create a Runnable (thread) to send a repeating vibrating pattern. Should terminate if
-  // the variable `vibrating` is False
-  class VibratingPattern implements Runnable {
-    private int minVibration = 40;
-    private int currentVibration = minVibration;
-
-    public void run() {
-      // loop until the thread is interrupted
-      int motorID = 0;
-      while (!Thread.currentThread().isInterrupted() && vibrating) {
-        try {
-          Thread.sleep(150);
-          int[] motorPattern = new int[4];
-          motorPattern[motorID] = currentVibration;
-          blessedNeo.vibrateMotors(motorPattern);
-          motorID = (motorID + 1) % NUM_MOTORS;
-          currentVibration = (currentVibration + 1) % NeosensoryBlessed.MAX_VIBRATION_AMP;
-          if (currentVibration == 0) {
-            currentVibration = minVibration;
-          }
-        } catch (InterruptedException e) {
-          blessedNeo.stopMotors();
-          blessedNeo.resumeDeviceAlgorithm();
-          Log.i(TAG, "Interrupted thread");
-          e.printStackTrace();
-        }
-      }
-      if (disconnectRequested) {
-        Log.i(TAG, "Disconnect requested while thread active");
-        blessedNeo.stopMotors();
-        blessedNeo.resumeDeviceAlgorithm();
-        // When disconnecting: it is possible for the device to process the disconnection request
-        // prior to processing the request to resume the onboard algorithm, which causes the last
-        // sent motor command to "stick"
-        try {
-          Thread.sleep(200);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
-        blessedNeo.disconnectNeoDevice();
-        disconnectRequested = false;
+  // A repeating vibrating pattern, stepping a vibration around the motors and growing stronger
+  // each step. It is rendered by the service's frame scheduler, so it keeps running while this
+  // Activity is recreated; it is static so that it holds no reference to the Activity.
+  static class VibratingPattern implements HapticSource {
+    private static final int MIN_VIBRATION = 40;
+    private int motorID = 0;
+    private int currentVibration = MIN_VIBRATION;
+
+    @Override
+    public boolean render(int[] frame, long timeNanos) {
+      Arrays.fill(frame, 0);
+      frame[motorID] = currentVibration;
+      motorID = (motorID + 1) % NUM_MOTORS;
+      currentVibration = (currentVibration + 1) % NeosensoryBlessed.MAX_VIBRATION_AMP;
+      if (currentVibration == 0) {
+        currentVibration = MIN_VIBRATION;
       }
+      return true;
     }
   }
 
+  private void stopVibratingPattern() {
+    neoService.stopStream();
+    blessedNeo.stopMotors();
+    blessedNeo.resumeDeviceAlgorithm();
+    vibrating = false;
+  }
+
   //////////////////////////
   // Cleanup on shutdown //
   /////////////////////////
@@ -116,12 +137,14 @@ public class MainActivity extends AppCompatActivity {
   protected void onDestroy() {
     super.onDestroy();
     unregisterReceiver(BlessedReceiver);
-    if (vibrating) {
-      vibrating = false;
-      disconnectRequested = true;
+    // Leaving the app for good ends the session; being recreated or backgrounded only detaches,
+    // leaving the connection and any vibrating pattern running in the service
+    if (isFinishing() && (neoService != null)) {
+      neoService.shutdown();
     }
+    unbindService(neoServiceConnection);
+    neoService = null;
     blessedNeo = null;
-    vibratingPatternThread = null;
   }
 
   ////////////////////////////////////
@@ -145,6 +168,10 @@ public class MainActivity extends AppCompatActivity {
       new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+          if (blessedNeo == null) {
+            // Not attached to the service yet; the current state is read once attached
+            return;
+          }
           if (intent.hasExtra("com.neosensory.neosensoryblessed.CliReadiness")) {
             // Check the message from NeosensoryBlessed to see if a Neosensory Command Line
             // Interface
@@ -196,13 +223,11 @@ public class MainActivity extends AppCompatActivity {
               blessedNeo.pauseDeviceAlgorithm();
               neoVibrateButton.setText("Stop Vibration Pattern");
               vibrating = true;
-              // run the vibrating pattern loop
-              vibratingPatternThread = new Thread(vibratingPattern);
-              vibratingPatternThread.start();
+              // stream the vibrating pattern from the service
+              neoService.startStream(new VibratingPattern(), PATTERN_FRAMES_PER_SECOND);
             } else {
               neoVibrateButton.setText("Start Vibration Pattern");
-              vibrating = false;
-              blessedNeo.resumeDeviceAlgorithm();
+              stopVibratingPattern();
             }
           }
         });
@@ -235,12 +260,22 @@ public class MainActivity extends AppCompatActivity {
             if (!vibrating) {
               blessedNeo.disconnectNeoDevice();
             } else {
-              // If motors are vibrating (in the VibratingPattern thread in this case) and we want
-              // to stop them on disconnect, we need to add a sleep/delay as it's possible for the
-              // disconnect to be processed prior to stopping the motors. See the VibratingPattern
-              // definition.
-              disconnectRequested = true;
-              vibrating = false;
+              // If motors are vibrating (streaming the VibratingPattern in this case) and we want
+              // to stop them on disconnect, we need to add a delay as it's possible for the
+              // device to process the disconnection request prior to processing the request to
+              // resume the onboard algorithm, which causes the last sent motor command to "stick"
+              Log.i(TAG, "Disconnect requested while pattern active");
+              stopVibratingPattern();
+              neoConnectButton.postDelayed(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      if (blessedNeo != null) {
+                        blessedNeo.disconnectNeoDevice();
+                      }
+                    }
+                  },
+                  200);
             }
           }
         });
@@ -274,15 +309,15 @@ public class MainActivity extends AppCompatActivity {
   //////////////////////////////////////////////
 
   private void initBluetoothHandler() {
-    // Create an instance of the Bluetooth handler. This uses the constructor that will search for
+    if (neoService == null) {
+      toastMessage("Still starting up, please try again.");
+      return;
+    }
+    // Have the service create and host an instance of the Bluetooth handler. This will search for
     // and connect to the first available device with "Buzz" in its name. To connect to a specific
     // device with a specific address, you can use the following pattern:  blessedNeo =
-    // NeosensoryBlessed.getInstance(getApplicationContext(), <address> e.g."EB:CA:85:38:19:1D",
-    // false);
-    blessedNeo =
-        NeosensoryBlessed.getInstance(getApplicationContext(), new String[] {"Buzz"}, false);
-    // register receivers so that NeosensoryBlessed can pass relevant messages and state changes to MainActivity
-    registerReceiver(BlessedReceiver, new IntentFilter("BlessedBroadcast"));
+    // neoService.connect(<address> e.g."EB:CA:85:38:19:1D", false);
+    blessedNeo = neoService.connect(new String[] {"Buzz"}, false);
   }
 
   private boolean checkLocationPermissions() {
@@ -0,0 +1,245 @@
+package com.neosensory.neosensoryblessed;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Perceptual calibration for one user on one device: where that user starts to feel vibration, the
+ * strongest level they are comfortable with, a gain per motor to even out differences in fit or
+ * motor response, and optionally a custom intensity curve in place of the default exponential
+ * curve of {@link NeoBuzzPsychophysics#GetMotorIntensity}.
+ *
+ * <p>Frames sent to {@link NeosensoryBlessed#vibrateMotors(int[])} are assumed to be designed for
+ * the nominal Buzz curve (anchored at 15 and 255). A compiled profile converts each nominal motor
+ * value back to the perceived intensity it stands for and re-renders that intensity for this user,
+ * so existing patterns feel as intended without being rewritten. Profiles are immutable; use {@link
+ * #compile()} once and hand the resulting {@link IntensityMap} to the frame path.
+ */
+public final class CalibrationProfile {
+
+  // Anchors of the curve that frames are authored against
+  static final int NOMINAL_MIN_INTENSITY = 15;
+  static final int NOMINAL_MAX_INTENSITY = 255;
+
+  private static final byte FORMAT_VERSION = 1;
+
+  private final String name;
+  private final int minIntensity;
+  private final int maxIntensity;
+  private final float[] motorGains;
+  private final float[] curveInputs;
+  private final float[] curveOutputs;
+
+  /**
+   * Create a profile that uses the default exponential intensity curve.
+   *
+   * @param name label for the user/device pair, e.g. "alice@EB:CA:85:38:19:1D"
+   * @param minIntensity int on [0 255], the weakest motor value this user can feel
+   * @param maxIntensity int on [0 255], the strongest motor value this user is comfortable with
+   * @param motorGains gain on [0 1] for each motor, or null for 1 on every motor of a Buzz
+   */
+  public CalibrationProfile(String name, int minIntensity, int maxIntensity, float[] motorGains) {
+    this(name, minIntensity, maxIntensity, motorGains, null, null);
+  }
+
+  /**
+   * Create a profile with a custom intensity curve.
+   *
+   * @param name label for the user/device pair, e.g. "alice@EB:CA:85:38:19:1D"
+   * @param minIntensity int on [0 255], the weakest motor value this user can feel
+   * @param maxIntensity int on [0 255], the strongest motor value this user is comfortable with
+   * @param motorGains gain on [0 1] for each motor, or null for 1 on every motor of a Buzz
+   * @param curveInputs perceived intensities on [0 1] at which the curve is defined, increasing. Null
+   *     for the default exponential curve.
+   * @param curveOutputs motor drive on [0 1] (0 = minIntensity, 1 = maxIntensity) at each curve
+   *     input. The curve is interpolated linearly between points.
+   */
+  public CalibrationProfile(
+      String name,
+      int minIntensity,
+      int maxIntensity,
+      float[] motorGains,
+      float[] curveInputs,
+      float[] curveOutputs) {
+    if (minIntensity < 0 || maxIntensity > 255 || minIntensity > maxIntensity) {
+      throw new IllegalArgumentException("Intensity anchors must satisfy 0 <= min <= max <= 255");
+    }
+    if ((curveInputs == null) != (curveOutputs == null)) {
+      throw new IllegalArgumentException("Curve inputs and outputs must be given together");
+    }
+    if (curveInputs != null) {
+      if (curveInputs.length < 2 || curveInputs.length != curveOutputs.length) {
+        throw new IllegalArgumentException("A curve needs at least 2 points of equal length");
+      }
+      for (int i = 1; i < curveInputs.length; i++) {
+        if (curveInputs[i] <= curveInputs[i - 1]) {
+          throw new IllegalArgumentException("Curve inputs must be strictly increasing");
+        }
+      }
+    }
+    this.name = name;
+    this.minIntensity = minIntensity;
+    this.maxIntensity = maxIntensity;
+    if (motorGains == null) {
+      motorGains = new float[NeoBuzzPsychophysics.NumMotors];
+      Arrays.fill(motorGains, 1);
+    }
+    this.motorGains = Arrays.copyOf(motorGains, motorGains.length);
+    this.curveInputs = curveInputs == null ? null : Arrays.copyOf(curveInputs, curveInputs.length);
+    this.curveOutputs =
+        curveOutputs == null ? null : Arrays.copyOf(curveOutputs, curveOutputs.length);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMinIntensity() {
+    return minIntensity;
+  }
+
+  public int getMaxIntensity() {
+    return maxIntensity;
+  }
+
+  public int getNumMotors() {
+    return motorGains.length;
+  }
+
+  /**
+   * Compile the profile into a 256-entry lookup per motor.
+   *
+   * @return the compiled map
+   */
+  public IntensityMap compile() {
+    int numMotors = motorGains.length;
+    byte[] table = new byte[numMotors * 256];
+    for (int value = 0; value < 256; value++) {
+      float drive = userDrive(value);
+      for (int motor = 0; motor < numMotors; motor++) {
+        int mapped = Math.round(drive * motorGains[motor]);
+        table[motor * 256 + value] = (byte) Math.max(0, Math.min(255, mapped));
+      }
+    }
+    return new IntensityMap(table, numMotors);
+  }
+
+  // Motor value for this user (before per-motor gain) corresponding to a nominal motor value
+  private float userDrive(int nominalValue) {
+    if (nominalValue == 0) {
+      return 0;
+    }
+    if (nominalValue < NOMINAL_MIN_INTENSITY) {
+      // Below the nominal threshold: scale proportionally towards this user's threshold
+      return (float) nominalValue * minIntensity / NOMINAL_MIN_INTENSITY;
+    }
+    // Invert the nominal curve to get the perceived intensity the value was meant to convey
+    double normalised =
+        (double) (nominalValue - NOMINAL_MIN_INTENSITY)
+            / (NOMINAL_MAX_INTENSITY - NOMINAL_MIN_INTENSITY);
+    float perceived = (float) Math.log1p(normalised * (Math.E - 1));
+    if (curveInputs == null) {
+      return (float)
+          (Math.expm1(perceived) / (Math.E - 1) * (maxIntensity - minIntensity) + minIntensity);
+    }
+    return minIntensity + interpolateCurve(perceived) * (maxIntensity - minIntensity);
+  }
+
+  private float interpolateCurve(float perceived) {
+    int last = curveInputs.length - 1;
+    if (perceived <= curveInputs[0]) {
+      return curveOutputs[0];
+    }
+    if (perceived >= curveInputs[last]) {
+      return curveOutputs[last];
+    }
+    int upper = 1;
+    while (curveInputs[upper] < perceived) {
+      upper++;
+    }
+    float fraction =
+        (perceived - curveInputs[upper - 1]) / (curveInputs[upper] - curveInputs[upper - 1]);
+    return curveOutputs[upper - 1] + fraction * (curveOutputs[upper] - curveOutputs[upper - 1]);
+  }
+
+  /**
+   * Serialise the profile into a compact binary form, e.g. for SharedPreferences (after Base64
+   * encoding) or a file. Gains and curve points are stored with 16-bit precision.
+   *
+   * @return the encoded profile
+   */
+  public byte[] toBytes() {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int curvePoints = curveInputs == null ? 0 : curveInputs.length;
+    ByteBuffer buffer =
+        ByteBuffer.allocate(
+            1 + 2 + nameBytes.length + 2 + 1 + motorGains.length * 2 + 1 + curvePoints * 4);
+    buffer.put(FORMAT_VERSION);
+    buffer.putShort((short) nameBytes.length);
+    buffer.put(nameBytes);
+    buffer.put((byte) minIntensity);
+    buffer.put((byte) maxIntensity);
+    buffer.put((byte) motorGains.length);
+    for (float gain : motorGains) {
+      buffer.putShort(toFixed(gain));
+    }
+    buffer.put((byte) curvePoints);
+    for (int i = 0; i < curvePoints; i++) {
+      buffer.putShort(toFixed(curveInputs[i]));
+      buffer.putShort(toFixed(curveOutputs[i]));
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Restore a profile written by {@link #toBytes()}.
+   *
+   * @param bytes the encoded profile
+   * @return the decoded profile
+   * @throws IllegalArgumentException if the bytes are not a valid encoded profile
+   */
+  public static CalibrationProfile fromBytes(byte[] bytes) {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (buffer.get() != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unsupported calibration profile version");
+      }
+      byte[] nameBytes = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(nameBytes);
+      int minIntensity = buffer.get() & 0xFF;
+      int maxIntensity = buffer.get() & 0xFF;
+      float[] motorGains = new float[buffer.get() & 0xFF];
+      for (int i = 0; i < motorGains.length; i++) {
+        motorGains[i] = fromFixed(buffer.getShort());
+      }
+      int curvePoints = buffer.get() & 0xFF;
+      float[] curveInputs = curvePoints == 0 ? null : new float[curvePoints];
+      float[] curveOutputs = curvePoints == 0 ? null : new float[curvePoints];
+      for (int i = 0; i < curvePoints; i++) {
+        curveInputs[i] = fromFixed(buffer.getShort());
+        curveOutputs[i] = fromFixed(buffer.getShort());
+      }
+      return new CalibrationProfile(
+          new String(nameBytes, StandardCharsets.UTF_8),
+          minIntensity,
+          maxIntensity,
+          motorGains,
+          curveInputs,
+          curveOutputs);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated calibration profile", e);
+    }
+  }
+
+  // Values on [0 2) as unsigned 1.15 fixed point
+  private static short toFixed(float value) {
+    int fixed = Math.round(value * 32768f);
+    return (short) Math.max(0, Math.min(0xFFFF, fixed));
+  }
+
+  private static float fromFixed(short fixed) {
+    return (fixed & 0xFFFF) / 32768f;
+  }
+}
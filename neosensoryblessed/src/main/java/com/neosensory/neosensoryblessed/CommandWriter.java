@@ -0,0 +1,331 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer executor for outbound commands. Any thread may {@link #submit(byte[])} a payload
+ * without taking a lock; payloads are appended to a lock-free MPSC queue and a single dedicated
+ * writer thread drains them in submission order into a {@link NeoTransport}.
+ *
+ * <p>The writer keeps at most {@code maxInFlight} writes outstanding on the link and waits for the
+ * transport to report completion through {@link #onWriteComplete(boolean)} before issuing more, so
+ * commands queue here (where they can be counted and cleared) rather than deep inside the Bluetooth
+ * stack. If a completion never arrives the write is considered done after {@code writeTimeoutMs};
+ * completions arrive in write order, so should the abandoned write's completion turn up late after
+ * all it is recognised as such and ignored rather than taken for the write now in flight.
+ *
+ * <p>Background work such as status queries can be submitted on a separate low-priority lane with
+ * {@link #submitLowPriority(byte[])}. Low-priority payloads are only written when no regular
+ * payload is waiting, unless the low-priority lane has been starved for more than two seconds.
+ */
+public class CommandWriter {
+
+  /** Notified when payloads leave the queue, so that producers can pace themselves. */
+  public interface CapacityListener {
+    /**
+     * Called on the writer thread after a payload was handed to the transport or the queue was
+     * cleared. Must return quickly; it delays the next write.
+     */
+    void onCapacityAvailable();
+  }
+
+  private static final long DEFAULT_WRITE_TIMEOUT_MS = 1000;
+  private static final long LOW_PRIORITY_MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final MpscQueue<byte[]> queue = new MpscQueue<>();
+  private final MpscQueue<byte[]> lowPriorityQueue = new MpscQueue<>();
+  private final NeoTransport transport;
+  private final int maxInFlight;
+  private final long writeTimeoutNanos;
+  private final Thread writerThread;
+  private final CopyOnWriteArrayList<CapacityListener> capacityListeners =
+      new CopyOnWriteArrayList<>();
+
+  // Counters are written by producers, the writer thread and the transport callback thread
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger lowPriorityPending = new AtomicInteger();
+  // Writes outstanding on the transport in the low 32 bits, and writes abandoned after a timeout
+  // whose completions are still owed in the high 32 bits. Packed so both change atomically.
+  private final AtomicLong outstanding = new AtomicLong();
+  private final AtomicBoolean clearRequested = new AtomicBoolean();
+  private volatile boolean running = true;
+  private volatile long lastWriteStartNanos;
+  // Writer thread only: when the low-priority lane last got a turn (or was last empty)
+  private long lowPriorityServedNanos = System.nanoTime();
+
+  /**
+   * Create a writer and start its thread, allowing one outstanding write at a time.
+   *
+   * @param transport the link to write payloads to
+   * @param threadName name for the writer thread (useful when profiling)
+   */
+  public CommandWriter(NeoTransport transport, String threadName) {
+    this(transport, threadName, 1, DEFAULT_WRITE_TIMEOUT_MS);
+  }
+
+  /**
+   * Create a writer and start its thread.
+   *
+   * @param transport the link to write payloads to
+   * @param threadName name for the writer thread (useful when profiling)
+   * @param maxInFlight maximum number of writes started on the transport but not yet completed
+   * @param writeTimeoutMs time after which an uncompleted write is assumed to be done
+   */
+  public CommandWriter(
+      NeoTransport transport, String threadName, int maxInFlight, long writeTimeoutMs) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1");
+    }
+    this.transport = transport;
+    this.maxInFlight = maxInFlight;
+    this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+    writerThread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                drainLoop();
+              }
+            },
+            threadName);
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Queue a payload to be written. Lock-free and safe to call from any thread.
+   *
+   * @param payload encoded command bytes. Ownership passes to the writer; do not modify it later.
+   * @return false if the writer has been shut down, true otherwise
+   */
+  public boolean submit(byte[] payload) {
+    if (!running) {
+      return false;
+    }
+    pending.incrementAndGet();
+    queue.offer(payload);
+    LockSupport.unpark(writerThread);
+    return true;
+  }
+
+  /**
+   * Queue a payload behind all regular traffic, e.g. a status query that must not delay a stream.
+   * Lock-free and safe to call from any thread.
+   *
+   * @param payload encoded command bytes. Ownership passes to the writer; do not modify it later.
+   * @return false if the writer has been shut down, true otherwise
+   */
+  public boolean submitLowPriority(byte[] payload) {
+    if (!running) {
+      return false;
+    }
+    lowPriorityPending.incrementAndGet();
+    lowPriorityQueue.offer(payload);
+    LockSupport.unpark(writerThread);
+    return true;
+  }
+
+  /**
+   * Report the outcome of a write previously started with {@link NeoTransport#write(byte[])}. Call
+   * this from whichever thread the transport delivers its completions on, in the order the writes
+   * were started.
+   *
+   * @param success whether the link acknowledged the write
+   * @return true if this completed a write in flight; false if it belonged to a write that had
+   *     already timed out or was forgotten by clear(), in which case it is ignored
+   */
+  public boolean onWriteComplete(boolean success) {
+    long current;
+    long next;
+    boolean inFlightWrite;
+    do {
+      current = outstanding.get();
+      if (abandoned(current) > 0) {
+        // The oldest outstanding completion is owed to a write that already timed out
+        next = current - (1L << 32);
+        inFlightWrite = false;
+      } else if (inFlight(current) > 0) {
+        next = current - 1;
+        inFlightWrite = true;
+      } else {
+        // Late completion for a write forgotten by clear()
+        return false;
+      }
+    } while (!outstanding.compareAndSet(current, next));
+    if (inFlightWrite) {
+      LockSupport.unpark(writerThread);
+    }
+    return inFlightWrite;
+  }
+
+  /**
+   * Drop every queued payload that has not yet been handed to the transport and forget about
+   * outstanding writes, e.g. after the link was lost. The queue is emptied by the writer thread.
+   */
+  public void clear() {
+    clearRequested.set(true);
+    outstanding.set(0);
+    LockSupport.unpark(writerThread);
+  }
+
+  /**
+   * Get the number of regular payloads submitted but not yet handed to the transport.
+   *
+   * @return the current queue depth, excluding the low-priority lane
+   */
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * Get the number of low-priority payloads submitted but not yet handed to the transport.
+   *
+   * @return the current low-priority queue depth
+   */
+  public int getLowPriorityPendingCount() {
+    return lowPriorityPending.get();
+  }
+
+  /**
+   * Get when the most recent write was handed to the transport.
+   *
+   * @return System.nanoTime() at the start of the last write, or 0 if nothing was written yet
+   */
+  public long getLastWriteStartNanos() {
+    return lastWriteStartNanos;
+  }
+
+  /**
+   * Get the number of writes started on the transport that have not been completed.
+   *
+   * @return the current number of outstanding writes
+   */
+  public int getInFlightCount() {
+    return inFlight(outstanding.get());
+  }
+
+  /**
+   * Register a listener to be told whenever there is room for more payloads.
+   *
+   * @param listener the listener to add
+   */
+  public void addCapacityListener(CapacityListener listener) {
+    capacityListeners.add(listener);
+  }
+
+  /**
+   * Unregister a listener added with {@link #addCapacityListener(CapacityListener)}.
+   *
+   * @param listener the listener to remove
+   */
+  public void removeCapacityListener(CapacityListener listener) {
+    capacityListeners.remove(listener);
+  }
+
+  /** Stop the writer thread. Queued payloads are discarded and further submits are rejected. */
+  public void shutdown() {
+    running = false;
+    LockSupport.unpark(writerThread);
+  }
+
+  // Writer thread body. This is the only place the queue is consumed.
+  private void drainLoop() {
+    while (running) {
+      if (clearRequested.getAndSet(false)) {
+        discardQueued();
+        notifyCapacity();
+      }
+      if (inFlight(outstanding.get()) >= maxInFlight) {
+        long waited = System.nanoTime() - lastWriteStartNanos;
+        if (waited >= writeTimeoutNanos) {
+          // Assume the completion was lost rather than stalling the stream forever, but remember
+          // it is owed in case it turns up late
+          abandonInFlight();
+        } else {
+          LockSupport.parkNanos(this, writeTimeoutNanos - waited);
+        }
+        continue;
+      }
+      byte[] payload = nextPayload();
+      if (payload == null) {
+        LockSupport.park(this);
+        continue;
+      }
+      outstanding.incrementAndGet();
+      lastWriteStartNanos = System.nanoTime();
+      if (!transport.write(payload)) {
+        // No completion will follow for a rejected write
+        releaseRejected();
+      }
+      notifyCapacity();
+    }
+    discardQueued();
+  }
+
+  // Unless clear() has already forgotten it
+  private void releaseRejected() {
+    long current;
+    do {
+      current = outstanding.get();
+      if (inFlight(current) == 0) {
+        return;
+      }
+    } while (!outstanding.compareAndSet(current, current - 1));
+  }
+
+  private void abandonInFlight() {
+    long current;
+    do {
+      current = outstanding.get();
+    } while (!outstanding.compareAndSet(
+        current, (long) (abandoned(current) + inFlight(current)) << 32));
+  }
+
+  private static int inFlight(long outstanding) {
+    return (int) outstanding;
+  }
+
+  private static int abandoned(long outstanding) {
+    return (int) (outstanding >>> 32);
+  }
+
+  // Regular traffic first; the low-priority lane gets a turn when idle or when starved too long
+  private byte[] nextPayload() {
+    long now = System.nanoTime();
+    if (lowPriorityQueue.isEmpty()) {
+      lowPriorityServedNanos = now;
+    } else if (queue.isEmpty() || now - lowPriorityServedNanos >= LOW_PRIORITY_MAX_WAIT_NANOS) {
+      byte[] payload = lowPriorityQueue.poll();
+      if (payload != null) {
+        lowPriorityPending.decrementAndGet();
+        lowPriorityServedNanos = now;
+        return payload;
+      }
+    }
+    byte[] payload = queue.poll();
+    if (payload != null) {
+      pending.decrementAndGet();
+    }
+    return payload;
+  }
+
+  private void notifyCapacity() {
+    for (CapacityListener listener : capacityListeners) {
+      listener.onCapacityAvailable();
+    }
+  }
+
+  private void discardQueued() {
+    while (queue.poll() != null) {
+      pending.decrementAndGet();
+    }
+    while (lowPriorityQueue.poll() != null) {
+      lowPriorityPending.decrementAndGet();
+    }
+  }
+}
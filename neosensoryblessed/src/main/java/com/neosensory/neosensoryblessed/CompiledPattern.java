@@ -0,0 +1,72 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * A {@link HapticPattern} rendered into a flat array of motor frames. Playback only walks the
+ * array: {@link PatternPlayer} copies frames out of it, and {@link
+ * NeosensoryBlessed#vibrateMotors(CompiledPattern, int)} sends commands that were encoded ahead of
+ * time. Compiled patterns are immutable and may be shared between threads.
+ */
+public final class CompiledPattern {
+
+  // Encoded commands together with the intensity map they were encoded with
+  private static final class Encoding {
+    final IntensityMap map;
+    final byte[][] commands;
+
+    Encoding(IntensityMap map, byte[][] commands) {
+      this.map = map;
+      this.commands = commands;
+    }
+  }
+
+  private final int[] frames;
+  private final int numMotors;
+  private final int frameCount;
+  private volatile Encoding encoding;
+
+  CompiledPattern(int[] frames, int numMotors) {
+    this.frames = frames;
+    this.numMotors = numMotors;
+    frameCount = numMotors == 0 ? 0 : frames.length / numMotors;
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  public int getNumMotors() {
+    return numMotors;
+  }
+
+  /**
+   * Copy one frame out of the pattern.
+   *
+   * @param frameIndex index on [0 frameCount)
+   * @param out array of at least # of motors to receive the motor values
+   */
+  public void getFrame(int frameIndex, int[] out) {
+    System.arraycopy(frames, frameIndex * numMotors, out, 0, numMotors);
+  }
+
+  /**
+   * Get the "motors vibrate" command for every frame, encoded with the given intensity map. The
+   * commands are encoded on first use and reused until a different map is asked for.
+   *
+   * @param map intensity map to apply while encoding
+   * @return one encoded command per frame. The arrays must not be modified.
+   */
+  public byte[][] getEncodedFrames(IntensityMap map) {
+    Encoding current = encoding;
+    if (current != null && current.map.equals(map)) {
+      return current.commands;
+    }
+    byte[][] commands = new byte[frameCount][];
+    int[] frame = new int[numMotors];
+    for (int f = 0; f < frameCount; f++) {
+      getFrame(f, frame);
+      commands[f] = MotorFrameEncoder.encodeVibrate(frame, map);
+    }
+    encoding = new Encoding(map, commands);
+    return commands;
+  }
+}
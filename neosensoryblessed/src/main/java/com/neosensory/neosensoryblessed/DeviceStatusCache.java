@@ -0,0 +1,296 @@
+package com.neosensory.neosensoryblessed;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the responses to device status queries (battery level, device info) so that several UI
+ * components asking for the same status don't flood the UART with duplicate commands that compete
+ * with vibration frames.
+ *
+ * <p>A response younger than the time-to-live is served from the cache. Otherwise a query is sent
+ * through the {@link OutboundPipeline} (so session recordings include it) on the writer's
+ * low-priority lane, and any callers arriving while it is outstanding share that one query. A
+ * query left unanswered for {@link #RESPONSE_TIMEOUT_MS} fails its callers with a null response.
+ * Responses are recognised by the JSON key of the device's answer (e.g. "battery_soc": in the CLI
+ * output), so echoes, errors and log lines that merely mention it are not taken for an answer; a
+ * response seen for a query nobody asked for (e.g. sent by the app directly) still refreshes the
+ * cache.
+ */
+public class DeviceStatusCache {
+
+  /** The status queries that are cached. */
+  public enum Query {
+    BATTERY_LEVEL("device battery_soc\n", "battery_soc"),
+    DEVICE_INFO("device info\n", "firmware_version");
+
+    private final byte[] command;
+    // The quoted JSON key that only the answer to this query carries
+    private final String responseMarker;
+
+    Query(String command, String responseKey) {
+      this.command = command.getBytes(StandardCharsets.UTF_8);
+      this.responseMarker = '"' + responseKey + '"';
+    }
+
+    // True if the message holds the response key followed by its value, not just the word
+    boolean isAnsweredBy(String message) {
+      int index = message.indexOf(responseMarker);
+      while (index >= 0) {
+        int next = index + responseMarker.length();
+        while (next < message.length() && Character.isWhitespace(message.charAt(next))) {
+          next++;
+        }
+        if (next < message.length() && message.charAt(next) == ':') {
+          return true;
+        }
+        index = message.indexOf(responseMarker, next);
+      }
+      return false;
+    }
+  }
+
+  /** Receives the response to a status query. */
+  public interface StatusCallback {
+    /**
+     * Called with the (possibly cached) response. For a fresh response this runs on the thread that
+     * delivered the CLI message; for a cached one, on the caller's thread; for a query that timed
+     * out, on a timer thread.
+     *
+     * @param query the query that was answered
+     * @param response the raw CLI response, or null if the query could not be answered (e.g. the
+     *     device disconnected or did not respond in time)
+     */
+    void onStatus(Query query, String response);
+  }
+
+  /** How long the device has to answer a query before waiting callers are given null. */
+  public static final long RESPONSE_TIMEOUT_MS = 3000;
+
+  private static final long DEFAULT_TTL_MS = 60000;
+  // One timer thread for every cache in the process; it only runs when a query times out
+  private static ScheduledExecutorService timeoutExecutor = null;
+
+  private static final class Entry {
+    String response;
+    long updatedNanos;
+    boolean inFlight;
+    // Identifies the query in flight, so a stale timeout can't fail a newer one
+    int sendCount;
+    final List<StatusCallback> waiting = new ArrayList<>();
+  }
+
+  private final OutboundPipeline outboundPipeline;
+  private final Entry[] entries = new Entry[Query.values().length];
+  private volatile long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MS);
+
+  /**
+   * Create a cache that sends its queries through a pipeline.
+   *
+   * @param outboundPipeline the outbound path of the device link
+   */
+  public DeviceStatusCache(OutboundPipeline outboundPipeline) {
+    this.outboundPipeline = outboundPipeline;
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = new Entry();
+    }
+  }
+
+  /**
+   * Set how long a response is served from the cache before the device is asked again.
+   *
+   * @param ttlMs time-to-live in milliseconds. 0 always queries the device (concurrent callers still
+   *     share one query).
+   */
+  public void setTtl(long ttlMs) {
+    ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+  }
+
+  /**
+   * Get a status, from the cache if fresh, otherwise by querying the device.
+   *
+   * @param query the status wanted
+   * @param callback receives the response, or null to only refresh the cache
+   * @return false if a query was needed and could not be queued, true otherwise
+   */
+  public boolean request(Query query, StatusCallback callback) {
+    String cached;
+    Entry entry = entries[query.ordinal()];
+    synchronized (this) {
+      long now = System.nanoTime();
+      cached = entry.response;
+      if (cached == null || now - entry.updatedNanos > ttlNanos) {
+        cached = null;
+        if (!entry.inFlight) {
+          if (!outboundPipeline.submitLowPriorityCommand(query.command)) {
+            return false;
+          }
+          entry.inFlight = true;
+          scheduleTimeout(query, ++entry.sendCount);
+        }
+        if (callback != null) {
+          entry.waiting.add(callback);
+        }
+      }
+    }
+    if (cached != null && callback != null) {
+      callback.onStatus(query, cached);
+    }
+    return true;
+  }
+
+  /**
+   * Get a cached status without querying the device.
+   *
+   * @param query the status wanted
+   * @return the response if one younger than the time-to-live is cached, null otherwise
+   */
+  public synchronized String getCached(Query query) {
+    Entry entry = entries[query.ordinal()];
+    if (entry.response == null || System.nanoTime() - entry.updatedNanos > ttlNanos) {
+      return null;
+    }
+    return entry.response;
+  }
+
+  /**
+   * Offer a CLI message to the cache. Messages that answer a status query update the cache and
+   * complete any waiting callers.
+   *
+   * @param message a message received from the CLI
+   */
+  public void onCliMessage(String message) {
+    if (message == null) {
+      return;
+    }
+    for (Query query : Query.values()) {
+      if (!query.isAnsweredBy(message)) {
+        continue;
+      }
+      List<StatusCallback> callbacks;
+      synchronized (this) {
+        Entry entry = entries[query.ordinal()];
+        entry.response = message;
+        entry.updatedNanos = System.nanoTime();
+        entry.inFlight = false;
+        callbacks = takeWaiting(entry);
+      }
+      deliver(callbacks, query, message);
+    }
+  }
+
+  /** Forget all cached responses and fail outstanding callers, e.g. when the link is lost. */
+  public void invalidate() {
+    for (Query query : Query.values()) {
+      List<StatusCallback> callbacks;
+      synchronized (this) {
+        Entry entry = entries[query.ordinal()];
+        entry.response = null;
+        entry.inFlight = false;
+        callbacks = takeWaiting(entry);
+      }
+      deliver(callbacks, query, null);
+    }
+  }
+
+  /**
+   * Extract the battery state of charge from a battery level response.
+   *
+   * @param response a CLI response to Query.BATTERY_LEVEL
+   * @return the battery level in %, or -1 if it can't be found in the response
+   */
+  public static float parseBatteryLevel(String response) {
+    if (response == null) {
+      return -1;
+    }
+    int index = response.indexOf(Query.BATTERY_LEVEL.responseMarker);
+    if (index < 0) {
+      return -1;
+    }
+    index += Query.BATTERY_LEVEL.responseMarker.length();
+    // Skip the separator between key and value, e.g. '": ' in JSON
+    while (index < response.length() && !isNumberChar(response.charAt(index))) {
+      index++;
+    }
+    int end = index;
+    while (end < response.length() && isNumberChar(response.charAt(end))) {
+      end++;
+    }
+    try {
+      return Float.parseFloat(response.substring(index, end));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static boolean isNumberChar(char c) {
+    return (c >= '0' && c <= '9') || c == '.' || c == '-';
+  }
+
+  private void scheduleTimeout(final Query query, final int sendCount) {
+    timeoutExecutor()
+        .schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                onTimeout(query, sendCount);
+              }
+            },
+            RESPONSE_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS);
+  }
+
+  // Fail the callers of a query that is still unanswered; the next request sends it again
+  private void onTimeout(Query query, int sendCount) {
+    List<StatusCallback> callbacks;
+    synchronized (this) {
+      Entry entry = entries[query.ordinal()];
+      if (!entry.inFlight || entry.sendCount != sendCount) {
+        return;
+      }
+      entry.inFlight = false;
+      callbacks = takeWaiting(entry);
+    }
+    deliver(callbacks, query, null);
+  }
+
+  private static synchronized ScheduledExecutorService timeoutExecutor() {
+    if (timeoutExecutor == null) {
+      timeoutExecutor =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "NeoStatusTimeout");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+    }
+    return timeoutExecutor;
+  }
+
+  private static List<StatusCallback> takeWaiting(Entry entry) {
+    if (entry.waiting.isEmpty()) {
+      return null;
+    }
+    List<StatusCallback> callbacks = new ArrayList<>(entry.waiting);
+    entry.waiting.clear();
+    return callbacks;
+  }
+
+  // Callbacks run outside the lock so that they may issue further requests
+  private static void deliver(List<StatusCallback> callbacks, Query query, String response) {
+    if (callbacks == null) {
+      return;
+    }
+    for (StatusCallback callback : callbacks) {
+      callback.onStatus(query, response);
+    }
+  }
+}
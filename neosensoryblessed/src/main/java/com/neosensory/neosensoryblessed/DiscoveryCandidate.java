@@ -0,0 +1,119 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Locale;
+
+/** A device seen during a discovery scan, with what was known about it when it was ranked. */
+public final class DiscoveryCandidate {
+
+  private final String address;
+  private final String name;
+  private final float rssi;
+  private final int advertisementCount;
+  private final float previousQuality;
+  private final float previousAckLatencyMillis;
+  private final float score;
+  private final long firstSeenMillis;
+
+  DiscoveryCandidate(
+      String address,
+      String name,
+      float rssi,
+      int advertisementCount,
+      float previousQuality,
+      float previousAckLatencyMillis,
+      float score,
+      long firstSeenMillis) {
+    this.address = address;
+    this.name = name;
+    this.rssi = rssi;
+    this.advertisementCount = advertisementCount;
+    this.previousQuality = previousQuality;
+    this.previousAckLatencyMillis = previousAckLatencyMillis;
+    this.score = score;
+    this.firstSeenMillis = firstSeenMillis;
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the signal strength the device was received with.
+   *
+   * @return mean RSSI over all advertisements seen, in dBm
+   */
+  public float getRssi() {
+    return rssi;
+  }
+
+  public int getAdvertisementCount() {
+    return advertisementCount;
+  }
+
+  /**
+   * Get the link quality remembered from previous sessions.
+   *
+   * @return quality on [0 1], or -1 if the device has not been connected to before
+   */
+  public float getPreviousQuality() {
+    return previousQuality;
+  }
+
+  /**
+   * Get the write acknowledgement latency remembered from previous sessions, the main input to the
+   * previous quality.
+   *
+   * @return 90th percentile latency in milliseconds, or -1 if unknown
+   */
+  public float getPreviousAckLatencyMillis() {
+    return previousAckLatencyMillis;
+  }
+
+  /**
+   * Get the ranking score combining signal strength and previous link quality.
+   *
+   * @return score on [0 1], higher is better
+   */
+  public float getScore() {
+    return score;
+  }
+
+  /**
+   * Get when the device was first seen.
+   *
+   * @return milliseconds from the start of the scan
+   */
+  public long getFirstSeenMillis() {
+    return firstSeenMillis;
+  }
+
+  @Override
+  public String toString() {
+    String quality;
+    if (previousQuality < 0) {
+      quality = "no previous session";
+    } else if (previousAckLatencyMillis < 0) {
+      quality = String.format(Locale.US, "previous link %.2f", previousQuality);
+    } else {
+      quality =
+          String.format(
+              Locale.US,
+              "previous link %.2f (p90 ack %.0f ms)",
+              previousQuality,
+              previousAckLatencyMillis);
+    }
+    return String.format(
+        Locale.US,
+        "%s '%s': %.0f dBm over %d advertisements, %s, score %.2f",
+        address,
+        name,
+        rssi,
+        advertisementCount,
+        quality,
+        score);
+  }
+}
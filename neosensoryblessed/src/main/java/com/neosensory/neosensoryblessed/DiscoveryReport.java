@@ -0,0 +1,121 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcome of a ranked discovery scan: the devices worth connecting to, best first, why the best
+ * one was chosen, and how long discovery took.
+ */
+public final class DiscoveryReport {
+
+  /** Receives the report when a ranked discovery scan ends. */
+  public interface Listener {
+    /**
+     * Called on the Bluetooth handler thread once the scan window closes with at least one
+     * candidate, just before connecting to the selected device.
+     *
+     * @param report the discovery outcome
+     */
+    void onDiscoveryComplete(DiscoveryReport report);
+  }
+
+  private final List<DiscoveryCandidate> candidates;
+  private final int devicesSeen;
+  private final long scanWindowMillis;
+  private final long firstCandidateMillis;
+  private final long selectionMillis;
+
+  DiscoveryReport(
+      List<DiscoveryCandidate> candidates,
+      int devicesSeen,
+      long scanWindowMillis,
+      long firstCandidateMillis,
+      long selectionMillis) {
+    this.candidates = Collections.unmodifiableList(candidates);
+    this.devicesSeen = devicesSeen;
+    this.scanWindowMillis = scanWindowMillis;
+    this.firstCandidateMillis = firstCandidateMillis;
+    this.selectionMillis = selectionMillis;
+  }
+
+  /**
+   * Get the device chosen for connection.
+   *
+   * @return the best ranked candidate, or null if no device was found
+   */
+  public DiscoveryCandidate getSelected() {
+    return candidates.isEmpty() ? null : candidates.get(0);
+  }
+
+  /**
+   * Get the top ranked devices. If connecting to one fails, the next one is tried.
+   *
+   * @return candidates, best first
+   */
+  public List<DiscoveryCandidate> getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Get the number of matching devices seen, including those not among the top candidates.
+   *
+   * @return number of distinct devices
+   */
+  public int getDevicesSeen() {
+    return devicesSeen;
+  }
+
+  public long getScanWindowMillis() {
+    return scanWindowMillis;
+  }
+
+  /**
+   * Get how long it took to see the first matching device.
+   *
+   * @return milliseconds from the start of the scan, or -1 if none was seen
+   */
+  public long getFirstCandidateMillis() {
+    return firstCandidateMillis;
+  }
+
+  /**
+   * Get when the selection was made.
+   *
+   * @return milliseconds from the start of the scan
+   */
+  public long getSelectionMillis() {
+    return selectionMillis;
+  }
+
+  /**
+   * Explain the selection in a human readable form, e.g. for logs.
+   *
+   * @return one line on the choice, followed by one line per candidate
+   */
+  public String getRationale() {
+    DiscoveryCandidate selected = getSelected();
+    if (selected == null) {
+      return "No matching device seen";
+    }
+    StringBuilder rationale = new StringBuilder();
+    rationale.append(
+        String.format(
+            Locale.US,
+            "Selected %s with score %.2f out of %d device(s) seen in %d ms",
+            selected.getAddress(),
+            selected.getScore(),
+            devicesSeen,
+            selectionMillis));
+    for (int i = 0; i < candidates.size(); i++) {
+      rationale.append('\n').append(i + 1).append(". ").append(candidates.get(i));
+    }
+    return rationale.toString();
+  }
+
+  @Override
+  public String toString() {
+    return getRationale();
+  }
+}
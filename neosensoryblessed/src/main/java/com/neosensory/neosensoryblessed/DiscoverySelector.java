@@ -0,0 +1,128 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects advertisements during a discovery scan and ranks the devices seen. A device's score
+ * blends its signal strength with how well its link performed in previous sessions (chiefly how
+ * quickly it acknowledged writes, see {@link LinkQualityStore}); devices never connected to before
+ * are given a neutral prior so they are neither favoured nor shunned.
+ */
+class DiscoverySelector {
+
+  // RSSI mapped linearly onto [0 1] between these, in dBm
+  private static final float WEAKEST_RSSI = -100;
+  private static final float STRONGEST_RSSI = -40;
+  private static final float RSSI_WEIGHT = 0.6f;
+  private static final float NEUTRAL_QUALITY = 0.75f;
+
+  private static final class Sightings {
+    String name;
+    long rssiSum;
+    int count;
+    long firstSeenNanos;
+  }
+
+  private final long scanStartNanos;
+  private final long scanWindowMillis;
+  // Insertion ordered so that ties keep discovery order
+  private final Map<String, Sightings> seen = new LinkedHashMap<>();
+
+  /**
+   * Start collecting.
+   *
+   * @param scanStartNanos when the scan started, on the System.nanoTime() clock
+   * @param scanWindowMillis length of the scan window, for the report
+   */
+  DiscoverySelector(long scanStartNanos, long scanWindowMillis) {
+    this.scanStartNanos = scanStartNanos;
+    this.scanWindowMillis = scanWindowMillis;
+  }
+
+  /**
+   * Record one advertisement.
+   *
+   * @param address the advertising device's address
+   * @param name the device name
+   * @param rssi signal strength of the advertisement in dBm
+   * @param timeNanos when it was received, on the System.nanoTime() clock
+   */
+  synchronized void offer(String address, String name, int rssi, long timeNanos) {
+    Sightings sightings = seen.get(address);
+    if (sightings == null) {
+      sightings = new Sightings();
+      sightings.firstSeenNanos = timeNanos;
+      seen.put(address, sightings);
+    }
+    sightings.name = name;
+    sightings.rssiSum += rssi;
+    sightings.count++;
+  }
+
+  synchronized boolean isEmpty() {
+    return seen.isEmpty();
+  }
+
+  /**
+   * Rank the devices seen so far.
+   *
+   * @param maxCandidates how many of the best devices to include in the report
+   * @param qualityStore previous session link quality, or null to rank on signal strength alone
+   * @param nowNanos when the selection is made, on the System.nanoTime() clock
+   * @return the report
+   */
+  synchronized DiscoveryReport select(
+      int maxCandidates, LinkQualityStore qualityStore, long nowNanos) {
+    List<DiscoveryCandidate> ranked = new ArrayList<>(seen.size());
+    long firstSeenNanos = Long.MAX_VALUE;
+    for (Map.Entry<String, Sightings> entry : seen.entrySet()) {
+      Sightings sightings = entry.getValue();
+      float rssi = sightings.rssiSum / (float) sightings.count;
+      float quality = qualityStore == null ? -1 : qualityStore.getQuality(entry.getKey());
+      float ackLatency =
+          qualityStore == null ? -1 : qualityStore.getAckLatencyMillis(entry.getKey());
+      float rssiScore =
+          Math.max(0, Math.min(1, (rssi - WEAKEST_RSSI) / (STRONGEST_RSSI - WEAKEST_RSSI)));
+      float score =
+          RSSI_WEIGHT * rssiScore + (1 - RSSI_WEIGHT) * (quality < 0 ? NEUTRAL_QUALITY : quality);
+      ranked.add(
+          new DiscoveryCandidate(
+              entry.getKey(),
+              sightings.name,
+              rssi,
+              sightings.count,
+              quality,
+              ackLatency,
+              score,
+              elapsedMillis(sightings.firstSeenNanos)));
+      firstSeenNanos = Math.min(firstSeenNanos, sightings.firstSeenNanos);
+    }
+    // Stable sort, so equal scores keep discovery order
+    Collections.sort(
+        ranked,
+        new Comparator<DiscoveryCandidate>() {
+          @Override
+          public int compare(DiscoveryCandidate a, DiscoveryCandidate b) {
+            return Float.compare(b.getScore(), a.getScore());
+          }
+        });
+    List<DiscoveryCandidate> top =
+        new ArrayList<>(ranked.subList(0, Math.min(Math.max(1, maxCandidates), ranked.size())));
+    return new DiscoveryReport(
+        top,
+        seen.size(),
+        scanWindowMillis,
+        seen.isEmpty() ? -1 : elapsedMillis(firstSeenNanos),
+        elapsedMillis(nowNanos));
+  }
+
+  private long elapsedMillis(long timeNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(timeNanos - scanStartNanos);
+  }
+}
@@ -0,0 +1,215 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a stream of frames pushed at the producer's rate into frames pulled at the link's rate.
+ * Producers call {@link #vibrateMotors(int[])} (or {@link #push(int[], long)}) whenever they have a
+ * frame, and a {@link FrameScheduler} running at the rate the link sustains renders this source.
+ *
+ * <p>When frames arrive faster than they are pulled, each output frame holds, per motor, the
+ * strongest value pushed since the previous one, so a tap shorter than an output frame is still
+ * felt. When frames arrive slower, output frames are interpolated between the last two input frames
+ * in perceived intensity (the inverse of {@link NeoBuzzPsychophysics#GetMotorIntensity}), which
+ * delays the stream by one input frame in exchange for smooth fades. Silence counts as perceived
+ * intensity 0, so fades to and from silence follow the curve too. Motors whose value does not
+ * change pass through exactly, and only non-zero values at or below the bottom of the curve, which
+ * it cannot represent, are blended as plain motor values. Both rates are measured as frames arrive
+ * and are pulled, so nothing needs to be configured and either rate may change.
+ *
+ * <p>If the producer stops pushing, the last frame is held for a few input periods and then the
+ * source goes silent.
+ */
+public class FrameResampler implements HapticSource, MotorFrameSink {
+
+  // Silent once no frame has been pushed for this many input periods, and at least STALE_MIN_NANOS
+  private static final int STALE_INPUT_PERIODS = 3;
+  private static final long STALE_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // Weight of the newest interval in the running estimates of the input and output periods
+  private static final float PERIOD_SMOOTHING = 0.125f;
+
+  private final int numMotors;
+  private final int minIntensity;
+  private final int maxIntensity;
+  // Perceived intensity on [0 1] of each motor value
+  private final float[] perceptual = new float[256];
+
+  // All guarded by this. Frames are kept both as pushed and in perceptual space.
+  private final int[] peak;
+  private final int[] latestValues;
+  private final int[] previousValues;
+  private final float[] latest;
+  private final float[] previous;
+  private long latestNanos;
+  private long previousNanos;
+  // Number of frames pushed since the last reset, counting no further than 2
+  private int framesPushed;
+  private int pushesSinceRender;
+  private long inputPeriodNanos;
+  private long outputPeriodNanos;
+  private long lastRenderNanos;
+  private boolean rendered;
+
+  /** Create a resampler for a Neosensory Buzz using the nominal intensity curve. */
+  public FrameResampler() {
+    this(
+        NeoBuzzPsychophysics.NumMotors,
+        CalibrationProfile.NOMINAL_MIN_INTENSITY,
+        CalibrationProfile.NOMINAL_MAX_INTENSITY);
+  }
+
+  /**
+   * Create a resampler.
+   *
+   * @param numMotors number of motors in each frame
+   * @param minIntensity int on [0 255], the lower anchor of the intensity curve frames follow
+   * @param maxIntensity int on [0 255], the upper anchor of the intensity curve frames follow
+   */
+  public FrameResampler(int numMotors, int minIntensity, int maxIntensity) {
+    if (minIntensity < 0 || maxIntensity > 255 || minIntensity >= maxIntensity) {
+      throw new IllegalArgumentException("Intensity anchors must satisfy 0 <= min < max <= 255");
+    }
+    this.numMotors = numMotors;
+    this.minIntensity = minIntensity;
+    this.maxIntensity = maxIntensity;
+    peak = new int[numMotors];
+    latestValues = new int[numMotors];
+    previousValues = new int[numMotors];
+    latest = new float[numMotors];
+    previous = new float[numMotors];
+    for (int v = 0; v < perceptual.length; v++) {
+      // Inverse of the curve: v = expm1(x) / (e - 1) * (max - min) + min
+      float drive = (v - minIntensity) / (float) (maxIntensity - minIntensity);
+      perceptual[v] =
+          v <= minIntensity ? 0 : Math.min(1, (float) Math.log1p(drive * (Math.E - 1)));
+    }
+  }
+
+  /**
+   * Push a frame, timestamped now. Safe to call from any thread.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]
+   * @return true
+   */
+  @Override
+  public boolean vibrateMotors(int[] motorValues) {
+    push(motorValues, System.nanoTime());
+    return true;
+  }
+
+  /**
+   * Push a frame. Safe to call from any thread; frames must be pushed in time order.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]. It is copied.
+   * @param timeNanos when the frame is meant to be felt, on the System.nanoTime() clock
+   */
+  public synchronized void push(int[] motorValues, long timeNanos) {
+    if (framesPushed > 0) {
+      inputPeriodNanos = smooth(inputPeriodNanos, timeNanos - latestNanos, framesPushed == 1);
+      System.arraycopy(latest, 0, previous, 0, numMotors);
+      System.arraycopy(latestValues, 0, previousValues, 0, numMotors);
+      previousNanos = latestNanos;
+    }
+    int count = Math.min(numMotors, motorValues.length);
+    for (int c = 0; c < numMotors; c++) {
+      int value = c < count ? Math.max(0, Math.min(255, motorValues[c])) : 0;
+      latestValues[c] = value;
+      latest[c] = perceptual[value];
+      if (pushesSinceRender == 0 || value > peak[c]) {
+        peak[c] = value;
+      }
+    }
+    latestNanos = timeNanos;
+    if (framesPushed < 2) {
+      framesPushed++;
+    }
+    pushesSinceRender++;
+  }
+
+  /** Forget all pushed frames; the source is silent until the next push. */
+  public synchronized void reset() {
+    framesPushed = 0;
+    pushesSinceRender = 0;
+  }
+
+  @Override
+  public synchronized boolean render(int[] frame, long timeNanos) {
+    if (rendered) {
+      long interval = timeNanos - lastRenderNanos;
+      outputPeriodNanos = smooth(outputPeriodNanos, interval, outputPeriodNanos == 0);
+    }
+    lastRenderNanos = timeNanos;
+    rendered = true;
+    if (framesPushed == 0) {
+      return false;
+    }
+    if (timeNanos - latestNanos
+        > Math.max(STALE_MIN_NANOS, STALE_INPUT_PERIODS * inputPeriodNanos)) {
+      reset();
+      return false;
+    }
+    int count = Math.min(numMotors, frame.length);
+    if (framesPushed == 1 || inputPeriodNanos < outputPeriodNanos || outputPeriodNanos == 0) {
+      // Decimating (or nothing to interpolate yet): strongest value since the last output frame
+      int[] values = pushesSinceRender > 0 ? peak : latestValues;
+      System.arraycopy(values, 0, frame, 0, count);
+    } else {
+      interpolate(frame, count, timeNanos - inputPeriodNanos);
+    }
+    for (int c = count; c < frame.length; c++) {
+      frame[c] = 0;
+    }
+    pushesSinceRender = 0;
+    return true;
+  }
+
+  // Fill the frame with the input stream as it was at `targetNanos`, in perceptual space where the
+  // curve covers both ends of the blend
+  private void interpolate(int[] frame, int count, long targetNanos) {
+    if (targetNanos >= latestNanos || latestNanos <= previousNanos) {
+      System.arraycopy(latestValues, 0, frame, 0, count);
+      return;
+    }
+    float fraction =
+        targetNanos <= previousNanos
+            ? 0
+            : (targetNanos - previousNanos) / (float) (latestNanos - previousNanos);
+    for (int c = 0; c < count; c++) {
+      int from = previousValues[c];
+      int to = latestValues[c];
+      if (from == to) {
+        frame[c] = to;
+      } else if (isBelowCurve(from) || isBelowCurve(to)) {
+        frame[c] = Math.round(from + (to - from) * fraction);
+      } else {
+        frame[c] = toMotorValue(previous[c] + (latest[c] - previous[c]) * fraction);
+      }
+    }
+  }
+
+  // Felt, but too weak for the curve to tell apart from its bottom
+  private boolean isBelowCurve(int value) {
+    return value > 0 && value <= minIntensity;
+  }
+
+  // GetMotorIntensity, rounded rather than truncated so that values survive the round trip. Only
+  // silence itself maps to 0; anything above it starts at the bottom of the curve.
+  private int toMotorValue(float intensity) {
+    if (intensity <= 0) {
+      return 0;
+    }
+    if (intensity >= 1) {
+      return maxIntensity;
+    }
+    return (int)
+        Math.round(
+            Math.expm1(intensity) / (Math.E - 1) * (maxIntensity - minIntensity) + minIntensity);
+  }
+
+  private static long smooth(long estimate, long sample, boolean first) {
+    if (sample <= 0) {
+      return estimate;
+    }
+    return first ? sample : estimate + (long) ((sample - estimate) * PERIOD_SMOOTHING);
+  }
+}
@@ -0,0 +1,186 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls frames from a {@link HapticSource} at a fixed rate and forwards them to a {@link
+ * MotorFrameSink}, so the link sees at most one frame per tick no matter how the frames are
+ * produced. When the source goes silent a single all-off frame is sent (the motors otherwise keep
+ * vibrating on the last frame received) and nothing more is sent until the source is active again.
+ *
+ * <p>With backpressure enabled (see {@link #setBackpressure(CommandWriter)}), a tick is skipped
+ * while the link still has a payload waiting to be written, so a link slower than the tick rate
+ * runs at its own pace instead of building up an ever longer queue and latency.
+ */
+public class FrameScheduler {
+
+  private final MotorFrameSink sink;
+  private final int numMotors;
+  private final ScheduledExecutorService executor;
+  private final Runnable tick =
+      new Runnable() {
+        @Override
+        public void run() {
+          onTick();
+        }
+      };
+
+  // Only touched on the scheduler thread
+  private final int[] frame;
+  private boolean lastFrameActive = false;
+
+  private volatile HapticSource source;
+  // Non-null while ticks are skipped when the link is backed up
+  private volatile CommandWriter backpressureWriter = null;
+  // Only written on the scheduler thread
+  private volatile long skippedTicks = 0;
+  private ScheduledFuture<?> tickFuture;
+  private long periodNanos;
+
+  /**
+   * Create a scheduler for a Neosensory Buzz sized frame.
+   *
+   * @param sink where frames are sent, typically a {@link NeosensoryBlessed} instance
+   */
+  public FrameScheduler(MotorFrameSink sink) {
+    this(sink, NeoBuzzPsychophysics.NumMotors);
+  }
+
+  /**
+   * Create a scheduler.
+   *
+   * @param sink where frames are sent, typically a {@link NeosensoryBlessed} instance
+   * @param numMotors number of motors in each frame
+   */
+  public FrameScheduler(MotorFrameSink sink, int numMotors) {
+    this.sink = sink;
+    this.numMotors = numMotors;
+    frame = new int[numMotors];
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "NeoFrameScheduler");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+  }
+
+  /**
+   * Set the source that is rendered each tick. May be changed while running.
+   *
+   * @param source the source to pull frames from, or null for silence
+   */
+  public void setSource(HapticSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Skip ticks while a writer has payloads queued. The source is not rendered on a skipped tick:
+   * sources that follow the tick time (e.g. a {@link SpatialRenderer} or {@link FrameResampler})
+   * lose nothing, while sources that advance one frame per render (e.g. a {@link PatternPlayer})
+   * play slower for as long as the link can't keep up.
+   *
+   * @param writer the writer behind the sink, or null to send a frame every tick
+   */
+  public void setBackpressure(CommandWriter writer) {
+    backpressureWriter = writer;
+  }
+
+  /**
+   * Get the number of ticks skipped because the link was backed up.
+   *
+   * @return skipped tick count since the scheduler was created
+   */
+  public long getSkippedTickCount() {
+    return skippedTicks;
+  }
+
+  /**
+   * Start (or restart at a new rate) emitting frames.
+   *
+   * @param framesPerSecond tick rate. This should not exceed what the link can sustain.
+   */
+  public synchronized void start(float framesPerSecond) {
+    if (framesPerSecond <= 0) {
+      throw new IllegalArgumentException("framesPerSecond must be positive");
+    }
+    if (tickFuture != null) {
+      tickFuture.cancel(false);
+    }
+    periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond);
+    tickFuture = executor.scheduleAtFixedRate(tick, 0, periodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Stop emitting frames. The motors are left on whatever frame was last sent. */
+  public synchronized void stop() {
+    if (tickFuture != null) {
+      tickFuture.cancel(false);
+      tickFuture = null;
+    }
+  }
+
+  /** Stop emitting frames and release the scheduler thread. The scheduler can't be restarted. */
+  public synchronized void shutdown() {
+    stop();
+    executor.shutdown();
+  }
+
+  /**
+   * Check whether the scheduler is currently emitting frames.
+   *
+   * @return true if started and not stopped
+   */
+  public synchronized boolean isRunning() {
+    return tickFuture != null;
+  }
+
+  /**
+   * Get the interval between ticks.
+   *
+   * @return the tick period in nanoseconds, or 0 if never started
+   */
+  public synchronized long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * Get the number of motors in each frame.
+   *
+   * @return frame length
+   */
+  public int getNumMotors() {
+    return numMotors;
+  }
+
+  private void onTick() {
+    CommandWriter writer = backpressureWriter;
+    if (writer != null && writer.getPendingCount() > 0) {
+      // The previous frame hasn't even reached the link yet; sending more would only queue up
+      skippedTicks++;
+      return;
+    }
+    HapticSource current = source;
+    boolean active = false;
+    try {
+      active = (current != null) && current.render(frame, System.nanoTime());
+    } catch (RuntimeException e) {
+      // A misbehaving source must not kill the periodic task; treat it as silent
+      active = false;
+    }
+    if (active) {
+      sink.vibrateMotors(frame);
+    } else if (lastFrameActive) {
+      Arrays.fill(frame, 0);
+      sink.vibrateMotors(frame);
+    }
+    lastFrameActive = active;
+  }
+}
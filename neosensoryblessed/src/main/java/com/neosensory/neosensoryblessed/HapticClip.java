@@ -0,0 +1,181 @@
+package com.neosensory.neosensoryblessed;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A pre-authored sequence of motor frames at a fixed frame rate, e.g. the output of {@link
+ * HapticTranscoder}. Clips are immutable and can be stored compactly with {@link #toBytes()}.
+ *
+ * <p>The stored form is "NEOCLP", a version byte, the number of motors, the frame rate as a float
+ * and the number of runs, followed by runs of identical frames: a 2-byte repeat count and one byte
+ * per motor. Silence and held notes, which make up much of typical content, cost a few bytes each.
+ */
+public final class HapticClip {
+
+  static final byte[] MAGIC = {'N', 'E', 'O', 'C', 'L', 'P'};
+  static final byte FORMAT_VERSION = 1;
+
+  private static final int MAX_RUN = 0xFFFF;
+
+  private final byte[] frames;
+  private final int numMotors;
+  private final float frameRate;
+
+  /**
+   * Create a clip from motor values.
+   *
+   * @param frames motor values on [0 255], frame after frame, numMotors values per frame. Ownership
+   *     passes to the clip; do not modify it later.
+   * @param numMotors number of motors per frame
+   * @param frameRate frames per second the clip is meant to be played at
+   */
+  HapticClip(byte[] frames, int numMotors, float frameRate) {
+    if (numMotors < 1 || numMotors > 255 || frames.length % numMotors != 0) {
+      throw new IllegalArgumentException("Frames must be a whole number of 1 to 255 motor frames");
+    }
+    if (!(frameRate > 0)) {
+      throw new IllegalArgumentException("Frame rate must be positive");
+    }
+    this.frames = frames;
+    this.numMotors = numMotors;
+    this.frameRate = frameRate;
+  }
+
+  public int getFrameCount() {
+    return frames.length / numMotors;
+  }
+
+  public int getNumMotors() {
+    return numMotors;
+  }
+
+  public float getFrameRate() {
+    return frameRate;
+  }
+
+  /**
+   * Copy one frame out of the clip.
+   *
+   * @param frameIndex index on [0 frameCount)
+   * @param out array of at least # of motors to receive the motor values on [0 255]
+   */
+  public void getFrame(int frameIndex, int[] out) {
+    int base = frameIndex * numMotors;
+    for (int c = 0; c < numMotors; c++) {
+      out[c] = frames[base + c] & 0xFF;
+    }
+  }
+
+  /**
+   * Convert the clip for playback with a {@link PatternPlayer} (driven by a {@link FrameScheduler}
+   * at {@link #getFrameRate()}) or {@link NeosensoryBlessed#vibrateMotors(CompiledPattern, int)}.
+   *
+   * @return a compiled pattern with the same frames
+   */
+  public CompiledPattern toCompiledPattern() {
+    int[] values = new int[frames.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = frames[i] & 0xFF;
+    }
+    return new CompiledPattern(values, numMotors);
+  }
+
+  /**
+   * Serialize the clip, e.g. to ship it with an app.
+   *
+   * @return the encoded clip, to be restored with {@link #fromBytes(byte[])}
+   */
+  public byte[] toBytes() {
+    int frameCount = getFrameCount();
+    int runs = 0;
+    for (int f = 0; f < frameCount; f += runLength(f)) {
+      runs++;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 1 + 1 + 4 + 4 + runs * (2 + numMotors));
+    buffer.put(MAGIC);
+    buffer.put(FORMAT_VERSION);
+    buffer.put((byte) numMotors);
+    buffer.putFloat(frameRate);
+    buffer.putInt(runs);
+    for (int f = 0; f < frameCount; ) {
+      int run = runLength(f);
+      buffer.putShort((short) run);
+      buffer.put(frames, f * numMotors, numMotors);
+      f += run;
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Restore a clip written by {@link #toBytes()}.
+   *
+   * @param bytes the encoded clip
+   * @return the decoded clip
+   * @throws IllegalArgumentException if the bytes are not a valid encoded clip
+   */
+  public static HapticClip fromBytes(byte[] bytes) {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      for (byte expected : MAGIC) {
+        if (buffer.get() != expected) {
+          throw new IllegalArgumentException("Not a haptic clip");
+        }
+      }
+      if (buffer.get() != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unsupported haptic clip version");
+      }
+      int numMotors = buffer.get() & 0xFF;
+      float frameRate = buffer.getFloat();
+      int runs = buffer.getInt();
+      if (numMotors == 0 || runs < 0 || runs > buffer.remaining() / (2 + numMotors)) {
+        throw new IllegalArgumentException("Corrupt haptic clip header");
+      }
+      int[] runLengths = new int[runs];
+      long frameCount = 0;
+      int start = buffer.position();
+      for (int r = 0; r < runs; r++) {
+        runLengths[r] = buffer.getShort() & 0xFFFF;
+        if (runLengths[r] == 0) {
+          throw new IllegalArgumentException("Corrupt haptic clip run");
+        }
+        frameCount += runLengths[r];
+        buffer.position(buffer.position() + numMotors);
+      }
+      if (frameCount * numMotors > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Haptic clip is too long");
+      }
+      byte[] frames = new byte[(int) frameCount * numMotors];
+      buffer.position(start);
+      int offset = 0;
+      for (int r = 0; r < runs; r++) {
+        buffer.getShort();
+        buffer.get(frames, offset, numMotors);
+        for (int i = 1; i < runLengths[r]; i++) {
+          System.arraycopy(frames, offset, frames, offset + i * numMotors, numMotors);
+        }
+        offset += runLengths[r] * numMotors;
+      }
+      return new HapticClip(frames, numMotors, frameRate);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated haptic clip", e);
+    }
+  }
+
+  // Number of frames from `start` equal to the frame at `start`, capped to what a run can hold
+  private int runLength(int start) {
+    int frameCount = getFrameCount();
+    int base = start * numMotors;
+    int run = 1;
+    while (start + run < frameCount && run < MAX_RUN) {
+      int other = (start + run) * numMotors;
+      for (int c = 0; c < numMotors; c++) {
+        if (frames[base + c] != frames[other + c]) {
+          return run;
+        }
+      }
+      run++;
+    }
+    return run;
+  }
+}
@@ -0,0 +1,245 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * Combines any number of {@link HapticSource}s into a single frame per tick, so layered effects
+ * (e.g. a notification pulse over a continuous audio-driven stream) share one stream instead of
+ * fighting over the link. A mixer is itself a source and is typically handed to a {@link
+ * FrameScheduler}.
+ *
+ * <p>Sources may be added, removed and re-weighted from any thread while the mixer is rendering.
+ * Rendering itself is allocation-free.
+ */
+public class HapticMixer implements HapticSource {
+
+  /** How the frames of simultaneously active sources are combined. */
+  public enum MixMode {
+    /** Each motor takes the strongest value among all active sources. */
+    MAX,
+    /** Motor values of all active sources are added and clipped at the maximum amplitude. */
+    SATURATING_SUM,
+    /**
+     * Sources with the highest priority among those active play at their own gain; all others are
+     * attenuated by the ducking gain before being summed in.
+     */
+    DUCKING
+  }
+
+  /** Handle to a source registered with the mixer. */
+  public final class Channel {
+    private final HapticSource source;
+    private volatile int priority;
+    private volatile float gain;
+
+    private Channel(HapticSource source, int priority, float gain) {
+      this.source = source;
+      this.priority = priority;
+      this.gain = gain;
+    }
+
+    /**
+     * Set the priority used in {@link MixMode#DUCKING}. Higher values win.
+     *
+     * @param priority the new priority
+     */
+    public void setPriority(int priority) {
+      this.priority = priority;
+    }
+
+    /**
+     * Set the linear gain applied to this source's motor values.
+     *
+     * @param gain gain on [0 1] (values above 1 are allowed and boost the source)
+     */
+    public void setGain(float gain) {
+      this.gain = gain;
+    }
+
+    public int getPriority() {
+      return priority;
+    }
+
+    public float getGain() {
+      return gain;
+    }
+
+    /** Remove this source from the mixer. */
+    public void remove() {
+      removeChannel(this);
+    }
+  }
+
+  private static final Channel[] NO_CHANNELS = new Channel[0];
+
+  private final int numMotors;
+  private volatile MixMode mixMode;
+  private volatile float duckingGain = 0.25f;
+  // Copy-on-write: writers replace the array under the lock, render() reads a snapshot lock-free
+  private volatile Channel[] channels = NO_CHANNELS;
+
+  // Render scratch space, only touched by the rendering thread
+  private final int[] scratch;
+  private final int[] mix;
+  private boolean[] active = new boolean[0];
+  // Per-source frames kept between the two ducking passes
+  private int[] stashed = new int[0];
+
+  /**
+   * Create a mixer for a Neosensory Buzz sized frame.
+   *
+   * @param mixMode how simultaneously active sources are combined
+   */
+  public HapticMixer(MixMode mixMode) {
+    this(mixMode, NeoBuzzPsychophysics.NumMotors);
+  }
+
+  /**
+   * Create a mixer.
+   *
+   * @param mixMode how simultaneously active sources are combined
+   * @param numMotors number of motors in each frame
+   */
+  public HapticMixer(MixMode mixMode, int numMotors) {
+    this.mixMode = mixMode;
+    this.numMotors = numMotors;
+    scratch = new int[numMotors];
+    mix = new int[numMotors];
+  }
+
+  /**
+   * Register a source.
+   *
+   * @param source the source to mix in
+   * @param priority priority used for {@link MixMode#DUCKING}. Higher values win.
+   * @param gain linear gain applied to the source's motor values
+   * @return a handle for adjusting or removing the source
+   */
+  public synchronized Channel addSource(HapticSource source, int priority, float gain) {
+    Channel channel = new Channel(source, priority, gain);
+    Channel[] current = channels;
+    Channel[] updated = new Channel[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = channel;
+    channels = updated;
+    return channel;
+  }
+
+  /** Remove all sources. */
+  public synchronized void clearSources() {
+    channels = NO_CHANNELS;
+  }
+
+  public void setMixMode(MixMode mixMode) {
+    this.mixMode = mixMode;
+  }
+
+  public MixMode getMixMode() {
+    return mixMode;
+  }
+
+  /**
+   * Set the attenuation applied to lower priority sources in {@link MixMode#DUCKING}.
+   *
+   * @param duckingGain gain on [0 1]. 0 mutes lower priority sources entirely.
+   */
+  public void setDuckingGain(float duckingGain) {
+    this.duckingGain = duckingGain;
+  }
+
+  /**
+   * Get the number of registered sources.
+   *
+   * @return the source count
+   */
+  public int getSourceCount() {
+    return channels.length;
+  }
+
+  private synchronized void removeChannel(Channel channel) {
+    Channel[] current = channels;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == channel) {
+        Channel[] updated = new Channel[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        channels = updated.length == 0 ? NO_CHANNELS : updated;
+        return;
+      }
+    }
+  }
+
+  @Override
+  public boolean render(int[] frame, long timeNanos) {
+    Channel[] snapshot = channels;
+    if (active.length < snapshot.length) {
+      // Only grows when sources are added, never per tick
+      active = new boolean[snapshot.length];
+    }
+    MixMode mode = mixMode;
+
+    // In ducking mode the winning priority depends on which sources are active this tick, so each
+    // active frame is stashed on the first pass and summed on a second pass once it is known.
+    int topPriority = Integer.MIN_VALUE;
+    boolean anyActive = false;
+    for (int c = 0; c < numMotors; c++) {
+      mix[c] = 0;
+    }
+    for (int s = 0; s < snapshot.length; s++) {
+      Channel channel = snapshot[s];
+      boolean sourceActive = channel.source.render(scratch, timeNanos);
+      active[s] = sourceActive;
+      if (!sourceActive) {
+        continue;
+      }
+      anyActive = true;
+      if (mode == MixMode.DUCKING) {
+        topPriority = Math.max(topPriority, channel.priority);
+        stash(s, snapshot.length);
+        continue;
+      }
+      accumulate(mode, channel.gain);
+    }
+    if (!anyActive) {
+      return false;
+    }
+    if (mode == MixMode.DUCKING) {
+      float duck = duckingGain;
+      for (int s = 0; s < snapshot.length; s++) {
+        if (!active[s]) {
+          continue;
+        }
+        Channel channel = snapshot[s];
+        unstash(s);
+        float gain = channel.priority >= topPriority ? channel.gain : channel.gain * duck;
+        accumulate(MixMode.SATURATING_SUM, gain);
+      }
+    }
+    for (int c = 0; c < numMotors; c++) {
+      frame[c] = mix[c];
+    }
+    return true;
+  }
+
+  private void stash(int sourceIndex, int sourceCount) {
+    if (stashed.length < sourceCount * numMotors) {
+      stashed = new int[sourceCount * numMotors];
+    }
+    System.arraycopy(scratch, 0, stashed, sourceIndex * numMotors, numMotors);
+  }
+
+  private void unstash(int sourceIndex) {
+    System.arraycopy(stashed, sourceIndex * numMotors, scratch, 0, numMotors);
+  }
+
+  // Fold the source frame held in scratch into the mix
+  private void accumulate(MixMode mode, float gain) {
+    for (int c = 0; c < numMotors; c++) {
+      int value = (int) (scratch[c] * gain);
+      if (mode != MixMode.MAX) {
+        value += mix[c];
+      } else if (value < mix[c]) {
+        continue;
+      }
+      mix[c] = Math.min(value, NeosensoryBlessed.MAX_VIBRATION_AMP);
+    }
+  }
+}
@@ -0,0 +1,412 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Declarative description of a haptic pattern, built from frames, ramps, illusion sweeps, silence,
+ * sequences, repeats and parallel layers. Durations are in frames, so the same pattern can be
+ * played at whatever rate the link supports.
+ *
+ * <p>A pattern does no work until {@link #compile()} renders it once into a {@link CompiledPattern}
+ * (a flat frame array plus lazily pre-encoded commands). Compiled patterns are cached by pattern
+ * value, so building an equal pattern again, or compiling the same one repeatedly, is a lookup.
+ * Sweeps follow the intensity curve of {@link NeoBuzzPsychophysics#MinIntensity} and {@link
+ * NeoBuzzPsychophysics#MaxIntensity}; the cache is emptied when those change.
+ *
+ * <p>Example: a sweep across the wrist and back, three times, under a steady pulse on motor 0:
+ *
+ * <pre>
+ * HapticPattern pattern = HapticPattern.parallel(
+ *     HapticPattern.repeat(
+ *         HapticPattern.sequence(
+ *             HapticPattern.sweep(0.8f, 0, 1, 20), HapticPattern.sweep(0.8f, 1, 0, 20)),
+ *         3),
+ *     HapticPattern.frame(new int[] {60, 0, 0, 0}, 120));
+ * </pre>
+ */
+public final class HapticPattern {
+
+  private static final int CACHE_CAPACITY = 64;
+
+  // Least recently used compiled patterns, keyed by pattern value
+  private static final Map<HapticPattern, CompiledPattern> compiledCache =
+      new LinkedHashMap<HapticPattern, CompiledPattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HapticPattern, CompiledPattern> eldest) {
+          return size() > CACHE_CAPACITY;
+        }
+      };
+  // Intensity curve anchors the cached patterns were rendered with; guarded by compiledCache
+  private static int cachedMinIntensity = -1;
+  private static int cachedMaxIntensity = -1;
+
+  private enum Kind {
+    FRAME,
+    RAMP,
+    SWEEP,
+    SEQUENCE,
+    REPEAT,
+    PARALLEL
+  }
+
+  private final Kind kind;
+  private final int[] from;
+  private final int[] to;
+  private final float intensity;
+  private final float fromLocation;
+  private final float toLocation;
+  private final int count;
+  private final HapticPattern[] children;
+  private final int numMotors;
+  private final int frameCount;
+  private final int hash;
+
+  private HapticPattern(
+      Kind kind,
+      int[] from,
+      int[] to,
+      float intensity,
+      float fromLocation,
+      float toLocation,
+      int count,
+      HapticPattern[] children) {
+    this.kind = kind;
+    this.from = from;
+    this.to = to;
+    this.intensity = intensity;
+    this.fromLocation = fromLocation;
+    this.toLocation = toLocation;
+    this.count = count;
+    this.children = children;
+    numMotors = computeNumMotors();
+    frameCount = computeFrameCount();
+    hash = computeHash();
+  }
+
+  /**
+   * Hold a single frame.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]
+   * @param frames number of frames to hold it for
+   * @return the pattern
+   */
+  public static HapticPattern frame(int[] motorValues, int frames) {
+    checkFrames(frames);
+    return new HapticPattern(Kind.FRAME, copyValues(motorValues), null, 0, 0, 0, frames, null);
+  }
+
+  /**
+   * All motors off.
+   *
+   * @param frames number of frames of silence
+   * @return the pattern
+   */
+  public static HapticPattern silence(int frames) {
+    return frame(new int[NeoBuzzPsychophysics.NumMotors], frames);
+  }
+
+  /**
+   * Fade linearly (in motor value) from one frame to another. The first frame is exactly {@code
+   * from} and the last exactly {@code to}.
+   *
+   * @param from starting motor values on [0 255]
+   * @param to final motor values on [0 255], same length as from
+   * @param frames number of frames the ramp takes
+   * @return the pattern
+   */
+  public static HapticPattern ramp(int[] from, int[] to, int frames) {
+    checkFrames(frames);
+    if (from.length != to.length) {
+      throw new IllegalArgumentException("Ramp endpoints must have the same number of motors");
+    }
+    return new HapticPattern(Kind.RAMP, copyValues(from), copyValues(to), 0, 0, 0, frames, null);
+  }
+
+  /**
+   * Move a perceived point of vibration across a Buzz using {@link
+   * NeoBuzzPsychophysics#GetIllusionActivations}.
+   *
+   * @param linearIntensity float on [0 1] of a vibrational intensity to be perceived
+   * @param fromLocation float on [0 1] for where the sweep starts
+   * @param toLocation float on [0 1] for where the sweep ends
+   * @param frames number of frames the sweep takes
+   * @return the pattern
+   */
+  public static HapticPattern sweep(
+      float linearIntensity, float fromLocation, float toLocation, int frames) {
+    checkFrames(frames);
+    return new HapticPattern(
+        Kind.SWEEP, null, null, linearIntensity, fromLocation, toLocation, frames, null);
+  }
+
+  /**
+   * Play patterns one after another.
+   *
+   * @param parts the patterns, in order
+   * @return the pattern
+   */
+  public static HapticPattern sequence(HapticPattern... parts) {
+    checkChildren(parts);
+    return new HapticPattern(Kind.SEQUENCE, null, null, 0, 0, 0, 0, parts.clone());
+  }
+
+  /**
+   * Play a pattern several times in a row.
+   *
+   * @param pattern the pattern to repeat
+   * @param times number of times to play it, at least 1
+   * @return the pattern
+   */
+  public static HapticPattern repeat(HapticPattern pattern, int times) {
+    if (times < 1) {
+      throw new IllegalArgumentException("A pattern must be repeated at least once");
+    }
+    return new HapticPattern(
+        Kind.REPEAT, null, null, 0, 0, 0, times, new HapticPattern[] {pattern});
+  }
+
+  /**
+   * Play patterns at the same time, each motor taking the strongest value among the layers. The
+   * result lasts as long as the longest layer; shorter layers are silent once finished.
+   *
+   * @param layers the patterns to layer
+   * @return the pattern
+   */
+  public static HapticPattern parallel(HapticPattern... layers) {
+    checkChildren(layers);
+    return new HapticPattern(Kind.PARALLEL, null, null, 0, 0, 0, 0, layers.clone());
+  }
+
+  /**
+   * Get the length of the pattern.
+   *
+   * @return number of frames
+   */
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * Get the width of the pattern's frames.
+   *
+   * @return number of motors
+   */
+  public int getNumMotors() {
+    return numMotors;
+  }
+
+  /**
+   * Render the pattern into frames, or fetch the result of an earlier compilation of an equal
+   * pattern. Safe to call from any thread.
+   *
+   * @return the compiled pattern
+   */
+  public CompiledPattern compile() {
+    int minIntensity = NeoBuzzPsychophysics.MinIntensity;
+    int maxIntensity = NeoBuzzPsychophysics.MaxIntensity;
+    synchronized (compiledCache) {
+      if (minIntensity != cachedMinIntensity || maxIntensity != cachedMaxIntensity) {
+        // Rendered on another curve; sweeps would come out differently now
+        compiledCache.clear();
+        cachedMinIntensity = minIntensity;
+        cachedMaxIntensity = maxIntensity;
+      }
+      CompiledPattern cached = compiledCache.get(this);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    int[] frames = new int[frameCount * numMotors];
+    renderInto(frames, 0, numMotors);
+    CompiledPattern compiled = new CompiledPattern(frames, numMotors);
+    synchronized (compiledCache) {
+      if (minIntensity != cachedMinIntensity
+          || maxIntensity != cachedMaxIntensity
+          || minIntensity != NeoBuzzPsychophysics.MinIntensity
+          || maxIntensity != NeoBuzzPsychophysics.MaxIntensity) {
+        // The curve changed while rendering; the result may mix both, so don't keep it
+        return compiled;
+      }
+      CompiledPattern raced = compiledCache.get(this);
+      if (raced != null) {
+        return raced;
+      }
+      compiledCache.put(this, compiled);
+    }
+    return compiled;
+  }
+
+  // Render this pattern starting at frame index `start` of a flat array of `stride`-wide frames,
+  // combining with what is already there by taking the maximum (the array starts zeroed).
+  private void renderInto(int[] out, int start, int stride) {
+    switch (kind) {
+      case FRAME:
+        for (int f = 0; f < count; f++) {
+          maxInto(out, (start + f) * stride, from);
+        }
+        break;
+      case RAMP:
+        int[] step = new int[from.length];
+        for (int f = 0; f < count; f++) {
+          float fraction = count == 1 ? 1 : (float) f / (count - 1);
+          for (int c = 0; c < from.length; c++) {
+            step[c] = Math.round(from[c] + (to[c] - from[c]) * fraction);
+          }
+          maxInto(out, (start + f) * stride, step);
+        }
+        break;
+      case SWEEP:
+        for (int f = 0; f < count; f++) {
+          float fraction = count == 1 ? 1 : (float) f / (count - 1);
+          float location = fromLocation + (toLocation - fromLocation) * fraction;
+          maxInto(
+              out,
+              (start + f) * stride,
+              NeoBuzzPsychophysics.GetIllusionActivations(intensity, location));
+        }
+        break;
+      case SEQUENCE:
+        int offset = start;
+        for (HapticPattern child : children) {
+          child.renderInto(out, offset, stride);
+          offset += child.frameCount;
+        }
+        break;
+      case REPEAT:
+        // Render once on its own, then layer each repetition onto whatever is already there
+        HapticPattern child = children[0];
+        int[] once = new int[child.frameCount * stride];
+        child.renderInto(once, 0, stride);
+        for (int r = 0; r < count; r++) {
+          int base = (start + r * child.frameCount) * stride;
+          for (int i = 0; i < once.length; i++) {
+            if (once[i] > out[base + i]) {
+              out[base + i] = once[i];
+            }
+          }
+        }
+        break;
+      case PARALLEL:
+        for (HapticPattern layer : children) {
+          layer.renderInto(out, start, stride);
+        }
+        break;
+    }
+  }
+
+  private static void maxInto(int[] out, int base, int[] values) {
+    for (int c = 0; c < values.length; c++) {
+      if (values[c] > out[base + c]) {
+        out[base + c] = values[c];
+      }
+    }
+  }
+
+  private int computeNumMotors() {
+    switch (kind) {
+      case FRAME:
+      case RAMP:
+        return from.length;
+      case SWEEP:
+        return NeoBuzzPsychophysics.NumMotors;
+      default:
+        int motors = 0;
+        for (HapticPattern child : children) {
+          motors = Math.max(motors, child.numMotors);
+        }
+        return motors;
+    }
+  }
+
+  private int computeFrameCount() {
+    long frames = 0;
+    switch (kind) {
+      case FRAME:
+      case RAMP:
+      case SWEEP:
+        frames = count;
+        break;
+      case SEQUENCE:
+        for (HapticPattern child : children) {
+          frames += child.frameCount;
+        }
+        break;
+      case REPEAT:
+        frames = (long) children[0].frameCount * count;
+        break;
+      case PARALLEL:
+        for (HapticPattern child : children) {
+          frames = Math.max(frames, child.frameCount);
+        }
+        break;
+    }
+    if (frames > Integer.MAX_VALUE / Math.max(1, numMotors)) {
+      throw new IllegalArgumentException("Pattern is too long to compile");
+    }
+    return (int) frames;
+  }
+
+  private int computeHash() {
+    int result = kind.hashCode();
+    result = 31 * result + Arrays.hashCode(from);
+    result = 31 * result + Arrays.hashCode(to);
+    result = 31 * result + Float.floatToIntBits(intensity);
+    result = 31 * result + Float.floatToIntBits(fromLocation);
+    result = 31 * result + Float.floatToIntBits(toLocation);
+    result = 31 * result + count;
+    result = 31 * result + Arrays.hashCode(children);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof HapticPattern)) {
+      return false;
+    }
+    HapticPattern that = (HapticPattern) other;
+    return hash == that.hash
+        && kind == that.kind
+        && count == that.count
+        && Float.floatToIntBits(intensity) == Float.floatToIntBits(that.intensity)
+        && Float.floatToIntBits(fromLocation) == Float.floatToIntBits(that.fromLocation)
+        && Float.floatToIntBits(toLocation) == Float.floatToIntBits(that.toLocation)
+        && Arrays.equals(from, that.from)
+        && Arrays.equals(to, that.to)
+        && Arrays.equals(children, that.children);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  private static void checkFrames(int frames) {
+    if (frames < 1) {
+      throw new IllegalArgumentException("A pattern must last at least one frame");
+    }
+  }
+
+  private static void checkChildren(HapticPattern[] children) {
+    if (children.length == 0) {
+      throw new IllegalArgumentException("At least one pattern is required");
+    }
+    for (HapticPattern child : children) {
+      if (child == null) {
+        throw new NullPointerException("Patterns must not be null");
+      }
+    }
+  }
+
+  private static int[] copyValues(int[] motorValues) {
+    int[] copy = new int[motorValues.length];
+    for (int c = 0; c < copy.length; c++) {
+      copy[c] = Math.max(0, Math.min(NeosensoryBlessed.MAX_VIBRATION_AMP, motorValues[c]));
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,20 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * A producer of motor frames that is pulled once per tick, e.g. by a {@link FrameScheduler} or a
+ * {@link HapticMixer}. Implementations render into the frame they are given rather than allocating
+ * their own, so a steady stream costs no allocation.
+ */
+public interface HapticSource {
+
+  /**
+   * Render the frame for the current tick.
+   *
+   * @param frame array of length # of motors to fill with motor intensities on [0 255]. Its
+   *     contents on entry are undefined.
+   * @param timeNanos monotonic time of the tick as given by System.nanoTime()
+   * @return true if the source is active and the frame was filled. False if the source is silent
+   *     for this tick, in which case the frame contents are ignored.
+   */
+  boolean render(int[] frame, long timeNanos);
+}
@@ -0,0 +1,608 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+
+/**
+ * A real-time synthesizer for live haptic effects. Each voice is an oscillator modulating the
+ * intensity of either one motor or a phantom point placed between motors with the haptic illusion,
+ * shaped by an ADSR envelope that is triggered with {@link #noteOn(int)} and released with {@link
+ * #noteOff(int)}. A positioned voice can have its location swept by a low-frequency oscillator
+ * (LFO), e.g. to circle a ring of motors. Voices are combined by power, like {@link
+ * SpatialRenderer} sources, and mapped onto the motors' perceptual intensity curve.
+ *
+ * <p>All voice state lives in primitive arrays sized when the synth is created, and frames are
+ * rendered a block at a time, one voice at a time, into a reused buffer that {@link #render(int[],
+ * long)} copies out of, so running any number of voices up to the capacity costs a fixed amount of
+ * CPU per tick and no allocation. Changing a parameter discards the rest of the current block and
+ * takes effect on the very next frame; blocks are then kept short and grow back while parameters
+ * stay put, so a parameter changed every tick costs about as much as rendering frame by frame.
+ * Setting a parameter to the value it already has, and querying with {@link #isSounding(int)}, cost
+ * nothing.
+ *
+ * <p>Intensities follow the curve anchored at {@link NeoBuzzPsychophysics#MinIntensity} and {@link
+ * NeoBuzzPsychophysics#MaxIntensity} as they are when the synth is created; later changes to those
+ * need a new synth.
+ *
+ * <p>The synth advances one frame per render call, so it should be pulled at the frame rate it was
+ * created with, e.g. by a {@link FrameScheduler} started at that rate. Oscillators run at that
+ * frame rate too: frequencies above half of it alias, so they are meant for pulses, tremolo and
+ * sweeps rather than motor carrier frequencies. All methods may be called from any thread.
+ */
+public class HapticSynth implements HapticSource {
+
+  /** Oscillator shapes. Each runs over one cycle from its phase 0. */
+  public enum Waveform {
+    /** Smooth swell, starting at half amplitude and rising. */
+    SINE,
+    /** Full amplitude for the first half of the cycle, off for the second. */
+    SQUARE,
+    /** Linear rise from off to full amplitude at mid cycle and back. */
+    TRIANGLE,
+    /** Linear rise from off to full amplitude, then an abrupt drop. */
+    SAW,
+    /** No modulation. */
+    CONSTANT
+  }
+
+  /** Default number of voices. */
+  public static final int DEFAULT_MAX_VOICES = 8;
+  /** Default number of frames rendered at a time. */
+  public static final int DEFAULT_BLOCK_FRAMES = 8;
+
+  private static final int SINE_TABLE_SIZE = 256;
+  // Resolution of the precomputed intensity curve, in steps across the [0 1] intensity range
+  private static final int INTENSITY_STEPS = 255;
+  private static final float[] SINE_TABLE = new float[SINE_TABLE_SIZE];
+
+  static {
+    for (int i = 0; i < SINE_TABLE_SIZE; i++) {
+      SINE_TABLE[i] = 0.5f + 0.5f * (float) Math.sin(2 * Math.PI * i / SINE_TABLE_SIZE);
+    }
+  }
+
+  // Envelope stages
+  private static final int IDLE = 0;
+  private static final int ATTACK = 1;
+  private static final int DECAY = 2;
+  private static final int SUSTAIN = 3;
+  private static final int RELEASE = 4;
+
+  // motor[] value of a voice placed with the pan law rather than bound to a motor
+  private static final int POSITIONED = -1;
+
+  private final MotorLayout layout;
+  private final int numMotors;
+  private final float framesPerSecond;
+  private final int maxVoices;
+  private final int blockFrames;
+  private final PanLaw panLaw;
+  // Motor intensity for each quantised linear intensity, on the curve at construction time
+  private final float[] intensityCurve = new float[INTENSITY_STEPS + 1];
+
+  // Voice parameters, indexed by voice; all guarded by this
+  private final boolean[] allocated;
+  private final int[] motor;
+  private final int[] waveform;
+  private final float[] phaseStep;
+  private final float[] depth;
+  private final float[] level;
+  private final float[] attackStep;
+  private final float[] decayStep;
+  private final float[] sustainLevel;
+  private final float[] releaseFrames;
+  private final float[] releaseStep;
+  private final float[] position;
+  private final int[] lfoWaveform;
+  private final float[] lfoPhaseStep;
+  private final float[] lfoDepth;
+
+  // Voice state advanced by rendering, and its value at the start of the current block
+  private final float[] phase;
+  private final float[] lfoPhase;
+  private final int[] envelopeStage;
+  private final float[] envelopeValue;
+  private final float[] blockStartPhase;
+  private final float[] blockStartLfoPhase;
+  private final int[] blockStartEnvelopeStage;
+  private final float[] blockStartEnvelopeValue;
+  // Frame of the current block from which each voice is silent, or the block length if it sounds
+  // throughout
+  private final int[] silentFromFrame;
+
+  // Rendered block: power then motor values per frame per motor
+  private final float[] power;
+  private final int[] block;
+  private final boolean[] blockActive;
+  private int blockLength;
+  private int cursor;
+  // Length of the next block; cut to 1 when a block is discarded, doubling back to blockFrames
+  private int nextBlockFrames;
+
+  /**
+   * Create a synth for a Neosensory Buzz.
+   *
+   * @param framesPerSecond rate the synth will be pulled at
+   */
+  public HapticSynth(float framesPerSecond) {
+    this(MotorLayout.buzz(), framesPerSecond, DEFAULT_MAX_VOICES, DEFAULT_BLOCK_FRAMES);
+  }
+
+  /**
+   * Create a synth.
+   *
+   * @param layout the arrangement of motors to render onto
+   * @param framesPerSecond rate the synth will be pulled at
+   * @param maxVoices number of voices that can be allocated at once
+   * @param blockFrames number of frames rendered at a time. Larger blocks amortise the per-voice
+   *     setup over more frames but waste more work when a parameter changes mid-block.
+   */
+  public HapticSynth(MotorLayout layout, float framesPerSecond, int maxVoices, int blockFrames) {
+    if (framesPerSecond <= 0) {
+      throw new IllegalArgumentException("framesPerSecond must be positive");
+    }
+    if (maxVoices < 1 || blockFrames < 1) {
+      throw new IllegalArgumentException("maxVoices and blockFrames must be at least 1");
+    }
+    this.layout = layout;
+    this.framesPerSecond = framesPerSecond;
+    this.maxVoices = maxVoices;
+    this.blockFrames = blockFrames;
+    numMotors = layout.getNumMotors();
+    panLaw = new PanLaw(layout);
+    intensityCurve[0] = 0;
+    for (int step = 1; step <= INTENSITY_STEPS; step++) {
+      intensityCurve[step] =
+          NeoBuzzPsychophysics.GetMotorIntensity(
+              (float) step / INTENSITY_STEPS,
+              NeoBuzzPsychophysics.MinIntensity,
+              NeoBuzzPsychophysics.MaxIntensity);
+    }
+
+    allocated = new boolean[maxVoices];
+    motor = new int[maxVoices];
+    waveform = new int[maxVoices];
+    phaseStep = new float[maxVoices];
+    depth = new float[maxVoices];
+    level = new float[maxVoices];
+    attackStep = new float[maxVoices];
+    decayStep = new float[maxVoices];
+    sustainLevel = new float[maxVoices];
+    releaseFrames = new float[maxVoices];
+    releaseStep = new float[maxVoices];
+    position = new float[maxVoices];
+    lfoWaveform = new int[maxVoices];
+    lfoPhaseStep = new float[maxVoices];
+    lfoDepth = new float[maxVoices];
+    phase = new float[maxVoices];
+    lfoPhase = new float[maxVoices];
+    envelopeStage = new int[maxVoices];
+    envelopeValue = new float[maxVoices];
+    blockStartPhase = new float[maxVoices];
+    blockStartLfoPhase = new float[maxVoices];
+    blockStartEnvelopeStage = new int[maxVoices];
+    blockStartEnvelopeValue = new float[maxVoices];
+    silentFromFrame = new int[maxVoices];
+
+    power = new float[blockFrames * numMotors];
+    block = new int[blockFrames * numMotors];
+    blockActive = new boolean[blockFrames];
+    nextBlockFrames = blockFrames;
+  }
+
+  /**
+   * Allocate a voice that drives a single motor. It starts silent, with a constant oscillator, full
+   * level and an envelope that switches straight on and off.
+   *
+   * @param motorIndex the motor to drive, on [0 # of motors)
+   * @return the voice, or -1 if all voices are in use
+   */
+  public synchronized int addMotorVoice(int motorIndex) {
+    if (motorIndex < 0 || motorIndex >= numMotors) {
+      throw new IllegalArgumentException("No motor " + motorIndex);
+    }
+    return allocate(motorIndex, 0);
+  }
+
+  /**
+   * Allocate a voice rendered as a phantom point between motors. It starts silent, with a constant
+   * oscillator, full level, no LFO and an envelope that switches straight on and off.
+   *
+   * @param location float on [0 1] for where on the layout the vibration should be perceived
+   * @return the voice, or -1 if all voices are in use
+   */
+  public synchronized int addPositionedVoice(float location) {
+    return allocate(POSITIONED, location);
+  }
+
+  /**
+   * Free a voice immediately, without its release.
+   *
+   * @param voice a voice returned by one of the add methods
+   */
+  public synchronized void removeVoice(int voice) {
+    checkVoice(voice);
+    syncToCursor();
+    allocated[voice] = false;
+    envelopeStage[voice] = IDLE;
+  }
+
+  /** Free all voices immediately. */
+  public synchronized void removeAllVoices() {
+    syncToCursor();
+    Arrays.fill(allocated, false);
+    Arrays.fill(envelopeStage, IDLE);
+  }
+
+  /**
+   * Set the oscillator modulating a voice's intensity.
+   *
+   * @param voice the voice
+   * @param shape the waveform
+   * @param frequencyHz cycles per second
+   * @param modulationDepth float on [0 1]: 0 for a steady intensity, 1 for the intensity to swing
+   *     all the way between off and the voice level
+   */
+  public synchronized void setOscillator(
+      int voice, Waveform shape, float frequencyHz, float modulationDepth) {
+    checkVoice(voice);
+    float step = frequencyHz / framesPerSecond;
+    modulationDepth = clamp(modulationDepth);
+    if (waveform[voice] == shape.ordinal()
+        && phaseStep[voice] == step
+        && depth[voice] == modulationDepth) {
+      return;
+    }
+    syncToCursor();
+    waveform[voice] = shape.ordinal();
+    phaseStep[voice] = step;
+    depth[voice] = modulationDepth;
+  }
+
+  /**
+   * Set the envelope a voice follows from noteOn to the end of its release.
+   *
+   * @param voice the voice
+   * @param attackMs time to rise to full level
+   * @param decayMs time to fall from full to the sustain level
+   * @param sustain float on [0 1], the fraction of full level held until noteOff
+   * @param releaseMs time to fade out after noteOff
+   */
+  public synchronized void setEnvelope(
+      int voice, long attackMs, long decayMs, float sustain, long releaseMs) {
+    checkVoice(voice);
+    sustain = clamp(sustain);
+    float attack = 1 / msToFrames(attackMs);
+    float decay = (1 - sustain) / msToFrames(decayMs);
+    float release = msToFrames(releaseMs);
+    if (attackStep[voice] == attack
+        && decayStep[voice] == decay
+        && sustainLevel[voice] == sustain
+        && releaseFrames[voice] == release) {
+      return;
+    }
+    syncToCursor();
+    attackStep[voice] = attack;
+    decayStep[voice] = decay;
+    sustainLevel[voice] = sustain;
+    releaseFrames[voice] = release;
+  }
+
+  /**
+   * Set the peak intensity of a voice.
+   *
+   * @param voice the voice
+   * @param linearIntensity float on [0 1] of a vibrational intensity to be perceived
+   */
+  public synchronized void setLevel(int voice, float linearIntensity) {
+    checkVoice(voice);
+    linearIntensity = clamp(linearIntensity);
+    if (level[voice] == linearIntensity) {
+      return;
+    }
+    syncToCursor();
+    level[voice] = linearIntensity;
+  }
+
+  /**
+   * Move a positioned voice. Has no effect on a voice bound to a motor.
+   *
+   * @param voice the voice
+   * @param location float on [0 1], the centre of any LFO sweep
+   */
+  public synchronized void setPosition(int voice, float location) {
+    checkVoice(voice);
+    if (position[voice] == location) {
+      return;
+    }
+    syncToCursor();
+    position[voice] = location;
+  }
+
+  /**
+   * Set the LFO sweeping a positioned voice's location. Has no effect on a voice bound to a motor.
+   *
+   * @param voice the voice
+   * @param shape the waveform of the sweep
+   * @param rateHz sweeps per second
+   * @param sweepDepth how far either side of the voice position the sweep reaches, as a fraction of
+   *     the layout. 0 disables the LFO; on a circular layout 0.5 sweeps the whole ring.
+   */
+  public synchronized void setPositionLfo(
+      int voice, Waveform shape, float rateHz, float sweepDepth) {
+    checkVoice(voice);
+    float step = rateHz / framesPerSecond;
+    if (lfoWaveform[voice] == shape.ordinal()
+        && lfoPhaseStep[voice] == step
+        && lfoDepth[voice] == sweepDepth) {
+      return;
+    }
+    syncToCursor();
+    lfoWaveform[voice] = shape.ordinal();
+    lfoPhaseStep[voice] = step;
+    lfoDepth[voice] = sweepDepth;
+  }
+
+  /**
+   * Start (or retrigger) a voice's envelope. A retriggered voice attacks from its current level, so
+   * there is no gap.
+   *
+   * @param voice the voice
+   */
+  public synchronized void noteOn(int voice) {
+    checkVoice(voice);
+    syncToCursor();
+    if (envelopeStage[voice] == IDLE) {
+      phase[voice] = 0;
+      lfoPhase[voice] = 0;
+    }
+    envelopeStage[voice] = ATTACK;
+  }
+
+  /**
+   * Release a voice's envelope. The voice stays allocated and can be triggered again.
+   *
+   * @param voice the voice
+   */
+  public synchronized void noteOff(int voice) {
+    checkVoice(voice);
+    syncToCursor();
+    if (envelopeStage[voice] != IDLE) {
+      envelopeStage[voice] = RELEASE;
+      releaseStep[voice] = envelopeValue[voice] / releaseFrames[voice];
+    }
+  }
+
+  /**
+   * Check whether a voice is producing vibration, i.e. triggered and not yet fully released.
+   * Reflects the most recent frame rendered.
+   *
+   * @param voice the voice
+   * @return true between noteOn and the end of the release
+   */
+  public synchronized boolean isSounding(int voice) {
+    checkVoice(voice);
+    if (cursor < blockLength) {
+      // The voice state is already at the end of the block; look up where the cursor is instead
+      return blockStartEnvelopeStage[voice] != IDLE && cursor <= silentFromFrame[voice];
+    }
+    return envelopeStage[voice] != IDLE;
+  }
+
+  public MotorLayout getLayout() {
+    return layout;
+  }
+
+  public float getFramesPerSecond() {
+    return framesPerSecond;
+  }
+
+  public int getMaxVoices() {
+    return maxVoices;
+  }
+
+  @Override
+  public synchronized boolean render(int[] frame, long timeNanos) {
+    if (cursor >= blockLength) {
+      renderBlock();
+    }
+    boolean active = blockActive[cursor];
+    if (active) {
+      System.arraycopy(block, cursor * numMotors, frame, 0, numMotors);
+    }
+    cursor++;
+    return active;
+  }
+
+  private int allocate(int motorIndex, float location) {
+    for (int voice = 0; voice < maxVoices; voice++) {
+      if (!allocated[voice]) {
+        syncToCursor();
+        allocated[voice] = true;
+        motor[voice] = motorIndex;
+        waveform[voice] = Waveform.CONSTANT.ordinal();
+        phaseStep[voice] = 0;
+        depth[voice] = 0;
+        level[voice] = 1;
+        attackStep[voice] = 1;
+        decayStep[voice] = 0;
+        sustainLevel[voice] = 1;
+        releaseFrames[voice] = 1;
+        position[voice] = location;
+        lfoWaveform[voice] = Waveform.CONSTANT.ordinal();
+        lfoPhaseStep[voice] = 0;
+        lfoDepth[voice] = 0;
+        phase[voice] = 0;
+        lfoPhase[voice] = 0;
+        envelopeStage[voice] = IDLE;
+        envelopeValue[voice] = 0;
+        return voice;
+      }
+    }
+    return -1;
+  }
+
+  private void renderBlock() {
+    int frames = nextBlockFrames;
+    nextBlockFrames = Math.min(blockFrames, frames * 2);
+    System.arraycopy(phase, 0, blockStartPhase, 0, maxVoices);
+    System.arraycopy(lfoPhase, 0, blockStartLfoPhase, 0, maxVoices);
+    System.arraycopy(envelopeStage, 0, blockStartEnvelopeStage, 0, maxVoices);
+    System.arraycopy(envelopeValue, 0, blockStartEnvelopeValue, 0, maxVoices);
+    Arrays.fill(power, 0, frames * numMotors, 0);
+    if (advance(frames, true)) {
+      for (int f = 0, i = 0; f < frames; f++) {
+        boolean active = false;
+        for (int c = 0; c < numMotors; c++, i++) {
+          int value = Math.min((int) Math.sqrt(power[i]), NeosensoryBlessed.MAX_VIBRATION_AMP);
+          block[i] = value;
+          active |= value > 0;
+        }
+        blockActive[f] = active;
+      }
+    } else {
+      Arrays.fill(blockActive, 0, frames, false);
+    }
+    blockLength = frames;
+    cursor = 0;
+  }
+
+  // Bring the voice state to the frame about to be rendered, so a parameter change applies from
+  // there, and drop the rest of the block rendered with the old parameters. Only a block cut short
+  // needs replaying, so the next blocks are kept short in case more changes follow.
+  private void syncToCursor() {
+    if (cursor < blockLength) {
+      System.arraycopy(blockStartPhase, 0, phase, 0, maxVoices);
+      System.arraycopy(blockStartLfoPhase, 0, lfoPhase, 0, maxVoices);
+      System.arraycopy(blockStartEnvelopeStage, 0, envelopeStage, 0, maxVoices);
+      System.arraycopy(blockStartEnvelopeValue, 0, envelopeValue, 0, maxVoices);
+      advance(cursor, false);
+      nextBlockFrames = 1;
+    }
+    blockLength = 0;
+    cursor = 0;
+  }
+
+  // Run every sounding voice forward by `frames` frames, adding its power to the block if
+  // `accumulate`. Returns true if any voice sounded.
+  private boolean advance(int frames, boolean accumulate) {
+    boolean anySounding = false;
+    for (int v = 0; v < maxVoices; v++) {
+      int stage = envelopeStage[v];
+      if (!allocated[v] || stage == IDLE) {
+        continue;
+      }
+      anySounding = true;
+      // Hoisted into locals so the inner loop touches no voice arrays, only the output and the
+      // shared lookup tables
+      float envelope = envelopeValue[v];
+      float oscPhase = phase[v];
+      float sweepPhase = lfoPhase[v];
+      int voiceMotor = motor[v];
+      int shape = waveform[v];
+      int sweepShape = lfoWaveform[v];
+      float step = phaseStep[v];
+      float sweepStep = lfoPhaseStep[v];
+      float modulation = depth[v];
+      float peak = level[v];
+      float centre = position[v];
+      float sweep = lfoDepth[v];
+      float attack = attackStep[v];
+      float decay = decayStep[v];
+      float sustain = sustainLevel[v];
+      float release = releaseStep[v];
+      int silentFrom = frames;
+      for (int f = 0; f < frames; f++) {
+        switch (stage) {
+          case ATTACK:
+            envelope += attack;
+            if (envelope >= 1) {
+              envelope = 1;
+              stage = DECAY;
+            }
+            break;
+          case DECAY:
+            envelope -= decay;
+            if (envelope <= sustain) {
+              envelope = sustain;
+              stage = SUSTAIN;
+            }
+            break;
+          case RELEASE:
+            envelope -= release;
+            if (envelope <= 0) {
+              envelope = 0;
+              stage = IDLE;
+              silentFrom = f;
+            }
+            break;
+          default:
+            break;
+        }
+        if (accumulate && envelope > 0) {
+          float intensity =
+              peak * envelope * (1 - modulation + modulation * oscillator(shape, oscPhase));
+          float motorIntensity = intensityCurve[Math.round(intensity * INTENSITY_STEPS)];
+          int offset = f * numMotors;
+          if (voiceMotor != POSITIONED) {
+            power[offset + voiceMotor] += motorIntensity * motorIntensity;
+          } else {
+            float location = centre;
+            if (sweep != 0) {
+              location += sweep * (2 * oscillator(sweepShape, sweepPhase) - 1);
+            }
+            int panStep = panLaw.quantise(location);
+            float lower = motorIntensity * panLaw.lowerGain[panStep];
+            float upper = motorIntensity * panLaw.upperGain[panStep];
+            power[offset + panLaw.lowerMotor[panStep]] += lower * lower;
+            power[offset + panLaw.upperMotor[panStep]] += upper * upper;
+          }
+        }
+        oscPhase += step;
+        oscPhase -= (float) Math.floor(oscPhase);
+        sweepPhase += sweepStep;
+        sweepPhase -= (float) Math.floor(sweepPhase);
+        if (stage == IDLE) {
+          break;
+        }
+      }
+      if (accumulate) {
+        silentFromFrame[v] = silentFrom;
+      }
+      envelopeStage[v] = stage;
+      envelopeValue[v] = envelope;
+      phase[v] = oscPhase;
+      lfoPhase[v] = sweepPhase;
+    }
+    return anySounding;
+  }
+
+  // Value of a waveform on [0 1] at a phase on [0 1)
+  private static float oscillator(int shape, float cyclePhase) {
+    switch (shape) {
+      case 0: // SINE
+        return SINE_TABLE[(int) (cyclePhase * SINE_TABLE_SIZE) & (SINE_TABLE_SIZE - 1)];
+      case 1: // SQUARE
+        return cyclePhase < 0.5f ? 1 : 0;
+      case 2: // TRIANGLE
+        return 1 - Math.abs(2 * cyclePhase - 1);
+      case 3: // SAW
+        return cyclePhase;
+      default:
+        return 1;
+    }
+  }
+
+  private float msToFrames(long durationMs) {
+    return Math.max(1, durationMs * framesPerSecond / 1000);
+  }
+
+  private static float clamp(float value) {
+    return Math.max(0, Math.min(1, value));
+  }
+
+  private void checkVoice(int voice) {
+    if (voice < 0 || voice >= maxVoices || !allocated[voice]) {
+      throw new IllegalArgumentException("No voice " + voice);
+    }
+  }
+}
@@ -0,0 +1,452 @@
+package com.neosensory.neosensoryblessed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts recorded audio into a {@link HapticClip} ahead of time, for pre-authored content that
+ * should not pay for audio analysis while it plays.
+ *
+ * <p>Each motor is driven by one band of a band-pass filter bank (low frequencies on motor 0, high
+ * on the last motor). Every frame, the RMS level of each band is taken, smoothed with a short
+ * release, expressed in dB below the loudest level in the file and mapped onto the Buzz intensity
+ * curve with {@link NeoBuzzPsychophysics#GetMotorIntensity}. Levels more than {@link
+ * #DYNAMIC_RANGE_DB} below the peak are silent.
+ *
+ * <p>Long inputs are split into chunks of frames that are analysed in parallel on a fork-join pool.
+ * Each chunk starts its filters early enough, in time rather than frames, that whatever state they
+ * start in has decayed below the dynamic range by the first frame it owns, and writes only its own
+ * frames into the output, so stitching needs no locking. Chunk boundaries
+ * depend only on the input, never on the number of threads, so a given file always transcodes to
+ * the same clip.
+ */
+public class HapticTranscoder {
+
+  /** Band levels this far below the file's peak level produce no vibration. */
+  public static final float DYNAMIC_RANGE_DB = 40;
+
+  private static final float LOWEST_BAND_HZ = 80;
+  private static final float HIGHEST_BAND_HZ = 8000;
+  private static final float RELEASE_SECONDS = 0.08f;
+  // Frames per parallel task
+  private static final int CHUNK_FRAMES = 256;
+  // Lead-in each task runs before its first owned frame, in time constants of the slowest of the
+  // release and the filters. e^-5 is about -43 dB, below DYNAMIC_RANGE_DB.
+  private static final float WARMUP_TIME_CONSTANTS = 5;
+
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final int WAVE_FORMAT_PCM = 1;
+  private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+  private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+  private final float frameRate;
+  private final int numMotors;
+  private final ForkJoinPool pool;
+
+  /**
+   * Create a transcoder for a Buzz that runs on the common fork-join pool.
+   *
+   * @param frameRate frames per second of the clips to produce
+   */
+  public HapticTranscoder(float frameRate) {
+    this(frameRate, NeoBuzzPsychophysics.NumMotors, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create a transcoder.
+   *
+   * @param frameRate frames per second of the clips to produce
+   * @param numMotors number of motors, which is also the number of frequency bands
+   * @param pool pool to run the analysis on, e.g. one sized to the machine's cores
+   */
+  public HapticTranscoder(float frameRate, int numMotors, ForkJoinPool pool) {
+    if (!(frameRate > 0)) {
+      throw new IllegalArgumentException("Frame rate must be positive");
+    }
+    if (numMotors < 1 || numMotors > 255) {
+      throw new IllegalArgumentException("Number of motors must be on [1 255]");
+    }
+    this.frameRate = frameRate;
+    this.numMotors = numMotors;
+    this.pool = pool;
+  }
+
+  /**
+   * Transcode a WAV file and write the resulting clip.
+   *
+   * @param wavFile a PCM (8, 16, 24 or 32 bit) or 32 bit float WAV file
+   * @param clipFile file to write the clip to, as stored by {@link HapticClip#toBytes()}
+   * @return the clip that was written
+   * @throws IOException if either file can't be accessed or the WAV file is not supported
+   */
+  public HapticClip transcodeFile(File wavFile, File clipFile) throws IOException {
+    HapticClip clip;
+    InputStream in = new FileInputStream(wavFile);
+    try {
+      clip = transcodeWav(in);
+    } finally {
+      in.close();
+    }
+    OutputStream out = new FileOutputStream(clipFile);
+    try {
+      out.write(clip.toBytes());
+    } finally {
+      out.close();
+    }
+    return clip;
+  }
+
+  /**
+   * Transcode a WAV stream. Multi-channel audio is mixed down to mono first.
+   *
+   * @param wav a PCM (8, 16, 24 or 32 bit) or 32 bit float WAV stream. It is read to the end of the
+   *     audio data but not closed.
+   * @return the clip
+   * @throws IOException if the stream can't be read or is not a supported WAV stream
+   */
+  public HapticClip transcodeWav(InputStream wav) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(wav));
+    if (readTag(in) != 0x46464952 /* RIFF */) {
+      throw new IOException("Not a RIFF file");
+    }
+    readLittleInt(in);
+    if (readTag(in) != 0x45564157 /* WAVE */) {
+      throw new IOException("Not a WAVE file");
+    }
+    int format = -1;
+    int channels = 0;
+    int sampleRate = 0;
+    int bitsPerSample = 0;
+    while (true) {
+      int tag = readTag(in);
+      long size = readLittleInt(in) & 0xFFFFFFFFL;
+      if (tag == 0x20746D66 /* fmt */) {
+        format = readLittleShort(in);
+        channels = readLittleShort(in);
+        sampleRate = readLittleInt(in);
+        skipFully(in, 6); // byte rate, block align
+        bitsPerSample = readLittleShort(in);
+        if (format == WAVE_FORMAT_EXTENSIBLE && size >= 26) {
+          skipFully(in, 8); // extension size, valid bits, channel mask
+          format = readLittleShort(in); // first two bytes of the sub-format GUID
+          skipFully(in, size - 26);
+        } else {
+          skipFully(in, size - 16);
+        }
+      } else if (tag == 0x61746164 /* data */) {
+        if (format < 0) {
+          throw new IOException("WAV data before format");
+        }
+        float[] samples = readSamples(in, size, format, channels, bitsPerSample);
+        return transcode(samples, sampleRate);
+      } else {
+        skipFully(in, size);
+      }
+      if ((size & 1) != 0) {
+        skipFully(in, 1); // chunks are padded to an even size
+      }
+    }
+  }
+
+  /**
+   * Transcode mono audio.
+   *
+   * @param samples audio samples on [-1 1]
+   * @param sampleRate sample rate of the audio in Hz
+   * @return the clip
+   */
+  public HapticClip transcode(final float[] samples, int sampleRate) {
+    if (sampleRate <= 0) {
+      throw new IllegalArgumentException("Sample rate must be positive");
+    }
+    double samplesPerFrame = sampleRate / (double) frameRate;
+    int frameCount = (int) Math.ceil(samples.length / samplesPerFrame);
+    float[] levels = new float[frameCount * numMotors];
+    double[] coefficients = designFilterBank(sampleRate);
+    int warmupFrames = warmupFrames(sampleRate);
+    int chunks = (frameCount + CHUNK_FRAMES - 1) / CHUNK_FRAMES;
+    if (chunks > 0) {
+      pool.invoke(
+          new ChunkTask(samples, samplesPerFrame, coefficients, warmupFrames, levels, 0, chunks));
+    }
+    return new HapticClip(mapLevels(levels), numMotors, frameRate);
+  }
+
+  // Analyses a range of chunks, splitting it in half until a single chunk remains
+  private final class ChunkTask extends RecursiveAction {
+    private final float[] samples;
+    private final double samplesPerFrame;
+    private final double[] coefficients;
+    private final int warmupFrames;
+    private final float[] levels;
+    private final int firstChunk;
+    private final int endChunk;
+
+    ChunkTask(
+        float[] samples,
+        double samplesPerFrame,
+        double[] coefficients,
+        int warmupFrames,
+        float[] levels,
+        int firstChunk,
+        int endChunk) {
+      this.samples = samples;
+      this.samplesPerFrame = samplesPerFrame;
+      this.coefficients = coefficients;
+      this.warmupFrames = warmupFrames;
+      this.levels = levels;
+      this.firstChunk = firstChunk;
+      this.endChunk = endChunk;
+    }
+
+    @Override
+    protected void compute() {
+      if (endChunk - firstChunk == 1) {
+        analyseChunk(samples, samplesPerFrame, coefficients, warmupFrames, levels, firstChunk);
+        return;
+      }
+      int middle = (firstChunk + endChunk) >>> 1;
+      invokeAll(
+          new ChunkTask(
+              samples, samplesPerFrame, coefficients, warmupFrames, levels, firstChunk, middle),
+          new ChunkTask(
+              samples, samplesPerFrame, coefficients, warmupFrames, levels, middle, endChunk));
+    }
+  }
+
+  // Filter, take band levels and smooth them for the frames of one chunk. Writes only its own
+  // frames of `levels`, so chunks can run concurrently.
+  private void analyseChunk(
+      float[] samples,
+      double samplesPerFrame,
+      double[] coefficients,
+      int warmupFrames,
+      float[] levels,
+      int chunk) {
+    int frameCount = levels.length / numMotors;
+    int firstFrame = chunk * CHUNK_FRAMES;
+    int endFrame = Math.min(frameCount, firstFrame + CHUNK_FRAMES);
+    int warmupFrame = Math.max(0, firstFrame - warmupFrames);
+    float release = (float) (1 - Math.exp(-1 / (frameRate * RELEASE_SECONDS)));
+    // Per band: biquad state x1, x2, y1, y2
+    double[] state = new double[numMotors * 4];
+    float[] envelope = new float[numMotors];
+    double[] sumSquares = new double[numMotors];
+    for (int f = warmupFrame; f < endFrame; f++) {
+      int start = sampleIndex(f, samplesPerFrame, samples.length);
+      int end = sampleIndex(f + 1, samplesPerFrame, samples.length);
+      for (int band = 0; band < numMotors; band++) {
+        sumSquares[band] = 0;
+      }
+      for (int i = start; i < end; i++) {
+        double x = samples[i];
+        for (int band = 0; band < numMotors; band++) {
+          int c = band * 5;
+          int s = band * 4;
+          double y =
+              coefficients[c] * x
+                  + coefficients[c + 1] * state[s]
+                  + coefficients[c + 2] * state[s + 1]
+                  - coefficients[c + 3] * state[s + 2]
+                  - coefficients[c + 4] * state[s + 3];
+          state[s + 1] = state[s];
+          state[s] = x;
+          state[s + 3] = state[s + 2];
+          state[s + 2] = y;
+          sumSquares[band] += y * y;
+        }
+      }
+      for (int band = 0; band < numMotors; band++) {
+        float rms = end > start ? (float) Math.sqrt(sumSquares[band] / (end - start)) : 0;
+        // Instant attack so onsets stay sharp, short release so they don't chatter
+        if (rms >= envelope[band]) {
+          envelope[band] = rms;
+        } else {
+          envelope[band] += (rms - envelope[band]) * release;
+        }
+        if (f >= firstFrame) {
+          levels[f * numMotors + band] = envelope[band];
+        }
+      }
+    }
+  }
+
+  private static int sampleIndex(int frame, double samplesPerFrame, int sampleCount) {
+    return (int) Math.min(sampleCount, Math.round(frame * samplesPerFrame));
+  }
+
+  // Lead-in frames for a chunk, from the release and the lowest band, whose filter rings longest
+  private int warmupFrames(int sampleRate) {
+    double ratio =
+        Math.pow(
+            Math.min(HIGHEST_BAND_HZ, sampleRate * 0.45) / LOWEST_BAND_HZ, 1.0 / numMotors);
+    double center = LOWEST_BAND_HZ * Math.sqrt(ratio);
+    double q = center / (LOWEST_BAND_HZ * ratio - LOWEST_BAND_HZ);
+    // A band-pass biquad's ringing decays with time constant 2Q / w0
+    double filterSeconds = q / (Math.PI * center);
+    return (int)
+        Math.ceil(frameRate * WARMUP_TIME_CONSTANTS * Math.max(RELEASE_SECONDS, filterSeconds));
+  }
+
+  // Normalised biquad band-pass coefficients (b0, b1, b2, a1, a2) per band, constant 0 dB peak
+  // gain, with bands spaced evenly on a log frequency scale.
+  private double[] designFilterBank(int sampleRate) {
+    double lowest = LOWEST_BAND_HZ;
+    double highest = Math.min(HIGHEST_BAND_HZ, sampleRate * 0.45);
+    if (highest <= lowest) {
+      throw new IllegalArgumentException("Sample rate is too low to transcode");
+    }
+    double ratio = Math.pow(highest / lowest, 1.0 / numMotors);
+    double[] coefficients = new double[numMotors * 5];
+    for (int band = 0; band < numMotors; band++) {
+      double low = lowest * Math.pow(ratio, band);
+      double high = low * ratio;
+      double center = Math.sqrt(low * high);
+      double q = center / (high - low);
+      double w0 = 2 * Math.PI * center / sampleRate;
+      double alpha = Math.sin(w0) / (2 * q);
+      double a0 = 1 + alpha;
+      int c = band * 5;
+      coefficients[c] = alpha / a0;
+      coefficients[c + 1] = 0;
+      coefficients[c + 2] = -alpha / a0;
+      coefficients[c + 3] = -2 * Math.cos(w0) / a0;
+      coefficients[c + 4] = (1 - alpha) / a0;
+    }
+    return coefficients;
+  }
+
+  // Levels to motor values, relative to the loudest band level anywhere in the file
+  private byte[] mapLevels(float[] levels) {
+    float peak = 0;
+    for (float level : levels) {
+      peak = Math.max(peak, level);
+    }
+    byte[] frames = new byte[levels.length];
+    if (peak <= 0) {
+      return frames;
+    }
+    for (int i = 0; i < levels.length; i++) {
+      if (levels[i] <= 0) {
+        continue;
+      }
+      float linear = 1 + (float) (20 * Math.log10(levels[i] / peak)) / DYNAMIC_RANGE_DB;
+      if (linear > 0) {
+        frames[i] =
+            (byte)
+                NeoBuzzPsychophysics.GetMotorIntensity(
+                    linear,
+                    CalibrationProfile.NOMINAL_MIN_INTENSITY,
+                    CalibrationProfile.NOMINAL_MAX_INTENSITY);
+      }
+    }
+    return frames;
+  }
+
+  private static float[] readSamples(
+      DataInputStream in, long size, int format, int channels, int bitsPerSample)
+      throws IOException {
+    int bytesPerSample = bitsPerSample / 8;
+    boolean supported =
+        channels > 0
+            && ((format == WAVE_FORMAT_PCM && bytesPerSample >= 1 && bytesPerSample <= 4)
+                || (format == WAVE_FORMAT_IEEE_FLOAT && bytesPerSample == 4));
+    if (!supported || bitsPerSample % 8 != 0) {
+      throw new IOException(
+          "Unsupported WAV format " + format + " with " + bitsPerSample + " bit samples");
+    }
+    int blockSize = bytesPerSample * channels;
+    long frameCount = size / blockSize;
+    if (frameCount > Integer.MAX_VALUE) {
+      throw new IOException("WAV file is too long");
+    }
+    float[] samples = new float[(int) frameCount];
+    // Read many sample frames per call; the stream overhead dominates decoding otherwise
+    byte[] buffer = new byte[Math.max(1, READ_BUFFER_BYTES / blockSize) * blockSize];
+    int decoded = 0;
+    while (decoded < samples.length) {
+      int wanted = (int) Math.min(buffer.length, (long) (samples.length - decoded) * blockSize);
+      int read = 0;
+      while (read < wanted) {
+        int count = in.read(buffer, read, wanted - read);
+        if (count < 0) {
+          break;
+        }
+        read += count;
+      }
+      int complete = read - read % blockSize;
+      if (format == WAVE_FORMAT_PCM && bytesPerSample == 2) {
+        // By far the most common format, so it gets a loop without per-byte shifting
+        float scale = 1f / (32768 * channels);
+        for (int offset = 0; offset < complete; offset += blockSize) {
+          int sum = 0;
+          for (int b = offset; b < offset + blockSize; b += 2) {
+            sum += (short) ((buffer[b] & 0xFF) | (buffer[b + 1] << 8));
+          }
+          samples[decoded++] = sum * scale;
+        }
+      } else {
+        for (int offset = 0; offset < complete; offset += blockSize) {
+          float sum = 0;
+          for (int ch = 0; ch < channels; ch++) {
+            sum += decodeSample(buffer, offset + ch * bytesPerSample, bytesPerSample, format);
+          }
+          samples[decoded++] = sum / channels;
+        }
+      }
+      if (read < wanted) {
+        // Truncated file: keep what was there
+        float[] truncated = new float[decoded];
+        System.arraycopy(samples, 0, truncated, 0, decoded);
+        return truncated;
+      }
+    }
+    return samples;
+  }
+
+  private static float decodeSample(byte[] block, int offset, int bytesPerSample, int format) {
+    int value = 0;
+    for (int b = 0; b < bytesPerSample; b++) {
+      value |= (block[offset + b] & 0xFF) << (8 * b);
+    }
+    if (format == WAVE_FORMAT_IEEE_FLOAT) {
+      return Float.intBitsToFloat(value);
+    }
+    if (bytesPerSample == 1) {
+      return (value - 128) / 128f; // 8 bit WAV is unsigned
+    }
+    int shift = 32 - 8 * bytesPerSample;
+    return ((value << shift) >> shift) / (float) (1L << (8 * bytesPerSample - 1));
+  }
+
+  private static int readTag(DataInputStream in) throws IOException {
+    return readLittleInt(in);
+  }
+
+  private static int readLittleInt(DataInputStream in) throws IOException {
+    return Integer.reverseBytes(in.readInt());
+  }
+
+  private static int readLittleShort(DataInputStream in) throws IOException {
+    return Short.reverseBytes(in.readShort()) & 0xFFFF;
+  }
+
+  private static void skipFully(DataInputStream in, long count) throws IOException {
+    while (count > 0) {
+      int skipped = in.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        throw new EOFException("Truncated WAV file");
+      }
+      count -= skipped;
+    }
+  }
+}
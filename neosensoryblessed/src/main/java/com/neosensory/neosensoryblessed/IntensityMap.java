@@ -0,0 +1,76 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+
+/**
+ * A compiled per-motor lookup from requested motor values on [0 255] to the values actually sent to
+ * the device. Maps are produced by {@link CalibrationProfile#compile()} and applied by {@link
+ * NeosensoryBlessed#vibrateMotors(int[])} as one table lookup per motor.
+ *
+ * <p>Maps are immutable, so a new one can be swapped in while a stream is running without locking.
+ */
+public final class IntensityMap {
+
+  private static final int ENTRIES = 256;
+  private static final IntensityMap IDENTITY = new IntensityMap(new byte[0], 0);
+
+  // Entry (motor * 256 + value) holds the output value for that motor as an unsigned byte
+  private final byte[] table;
+  private final int numMotors;
+
+  /**
+   * Get the map that leaves every motor value unchanged.
+   *
+   * @return the identity map
+   */
+  public static IntensityMap identity() {
+    return IDENTITY;
+  }
+
+  IntensityMap(byte[] table, int numMotors) {
+    this.table = table;
+    this.numMotors = numMotors;
+  }
+
+  /**
+   * Look up the output value for a motor.
+   *
+   * @param motorIndex index of the motor in the frame. Motors beyond those covered by the map pass
+   *     through unchanged.
+   * @param value requested motor value. As with vibrateMotors only the low 8 bits are used.
+   * @return the motor value to send, on [0 255]
+   */
+  public int lookup(int motorIndex, int value) {
+    int index = value & 0xFF;
+    if (motorIndex >= numMotors) {
+      return index;
+    }
+    return table[(motorIndex * ENTRIES) + index] & 0xFF;
+  }
+
+  /**
+   * Get the number of motors the map has entries for.
+   *
+   * @return motor count, 0 for the identity map
+   */
+  public int getNumMotors() {
+    return numMotors;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof IntensityMap)) {
+      return false;
+    }
+    IntensityMap that = (IntensityMap) other;
+    return numMotors == that.numMotors && Arrays.equals(table, that.table);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * numMotors + Arrays.hashCode(table);
+  }
+}
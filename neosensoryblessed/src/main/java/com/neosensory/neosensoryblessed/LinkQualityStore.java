@@ -0,0 +1,121 @@
+package com.neosensory.neosensoryblessed;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers how well the link to each device performed in previous sessions, so that discovery can
+ * prefer devices that have streamed reliably before. A session's quality is driven by how quickly
+ * the device acknowledged writes (the 90th percentile latency, from {@link #GOOD_ACK_LATENCY_MS}
+ * scoring 1 down to {@link #POOR_ACK_LATENCY_MS} scoring 0), scaled by the share of writes
+ * acknowledged and halved if the link dropped without being asked to. Quality is averaged over
+ * recent sessions with more weight on the latest; a failed connection counts as a session with
+ * quality 0.
+ */
+public class LinkQualityStore {
+
+  /** 90th percentile acknowledgement latency at or below which a link scores full quality. */
+  public static final float GOOD_ACK_LATENCY_MS = 15;
+  /** 90th percentile acknowledgement latency at or above which a link scores zero quality. */
+  public static final float POOR_ACK_LATENCY_MS = 150;
+
+  static final String PREFERENCES_NAME = "neosensoryblessed_link_quality";
+
+  private static final String KEY_PREFIX = "quality.";
+  private static final String LATENCY_KEY_PREFIX = "ackLatency.";
+  private static final float LATENCY_PERCENTILE = 90;
+  private static final float UNEXPECTED_DISCONNECT_FACTOR = 0.5f;
+  // Weight of the latest session in the stored averages
+  private static final float SESSION_WEIGHT = 0.5f;
+
+  private final SharedPreferences preferences;
+
+  /**
+   * Create a store backed by the app's shared preferences.
+   *
+   * @param context the Android Context
+   */
+  public LinkQualityStore(Context context) {
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Get the remembered link quality for a device.
+   *
+   * @param address the device address, e.g. "EB:CA:85:38:19:1D"
+   * @return quality on [0 1], or -1 if no session with the device has been recorded
+   */
+  public float getQuality(String address) {
+    return preferences.getFloat(KEY_PREFIX + address, -1);
+  }
+
+  /**
+   * Get the remembered write acknowledgement latency for a device.
+   *
+   * @param address the device address
+   * @return 90th percentile latency in milliseconds averaged over recent sessions, or -1 if no
+   *     session with writes has been recorded
+   */
+  public float getAckLatencyMillis(String address) {
+    return preferences.getFloat(LATENCY_KEY_PREFIX + address, -1);
+  }
+
+  /**
+   * Record the outcome of a session with a device. Sessions without writes are ignored unless the
+   * link dropped unexpectedly.
+   *
+   * @param address the device address
+   * @param stats the link statistics gathered during the session
+   * @param unexpectedDisconnect true if the session ended without a disconnect being requested
+   */
+  public void recordSession(String address, LinkSessionStats stats, boolean unexpectedDisconnect) {
+    int writes = stats.getWrites();
+    float disconnectFactor = unexpectedDisconnect ? UNEXPECTED_DISCONNECT_FACTOR : 1;
+    if (writes <= 0) {
+      if (unexpectedDisconnect) {
+        record(address, disconnectFactor, -1);
+      }
+      return;
+    }
+    float latency = stats.getAckLatencyPercentileMillis(LATENCY_PERCENTILE);
+    float acknowledged = (writes - stats.getFailedWrites()) / (float) writes;
+    record(address, latencyScore(latency) * acknowledged * disconnectFactor, latency);
+  }
+
+  /**
+   * Record a failed attempt to connect to a device.
+   *
+   * @param address the device address
+   */
+  public void recordConnectionFailure(String address) {
+    record(address, 0, -1);
+  }
+
+  // 1 for a fast link, falling to 0 in proportion to the log of the latency
+  static float latencyScore(float latencyMs) {
+    if (latencyMs <= GOOD_ACK_LATENCY_MS) {
+      return 1;
+    }
+    if (latencyMs >= POOR_ACK_LATENCY_MS) {
+      return 0;
+    }
+    return 1
+        - (float)
+            (Math.log(latencyMs / GOOD_ACK_LATENCY_MS)
+                / Math.log(POOR_ACK_LATENCY_MS / GOOD_ACK_LATENCY_MS));
+  }
+
+  private synchronized void record(String address, float sessionQuality, float latencyMs) {
+    SharedPreferences.Editor editor = preferences.edit();
+    editor.putFloat(KEY_PREFIX + address, blend(getQuality(address), sessionQuality));
+    if (latencyMs >= 0) {
+      editor.putFloat(
+          LATENCY_KEY_PREFIX + address, blend(getAckLatencyMillis(address), latencyMs));
+    }
+    editor.apply();
+  }
+
+  private static float blend(float previous, float latest) {
+    return previous < 0 ? latest : previous + (latest - previous) * SESSION_WEIGHT;
+  }
+}
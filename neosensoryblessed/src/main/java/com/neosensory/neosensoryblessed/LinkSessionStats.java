@@ -0,0 +1,73 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of the link during one connection session: how long the device took to acknowledge
+ * each write and how many writes failed. Acknowledgement latency grows with retransmissions and
+ * missed connection events, so unlike the share of failed writes (which the Bluetooth stack hides
+ * by retrying) it tells a poor link from a good one. Latencies are kept in a fixed histogram, so
+ * recording a write does not allocate.
+ */
+public final class LinkSessionStats {
+
+  // Histogram of acknowledgement latency in 1 ms buckets; the last one collects anything slower
+  private static final int MAX_LATENCY_MS = 250;
+
+  // All guarded by this
+  private final int[] latencyHistogram = new int[MAX_LATENCY_MS + 1];
+  private int writes;
+  private int failedWrites;
+
+  /** Forget everything recorded, e.g. when a new session starts. */
+  public synchronized void reset() {
+    Arrays.fill(latencyHistogram, 0);
+    writes = 0;
+    failedWrites = 0;
+  }
+
+  /**
+   * Record a completed write.
+   *
+   * @param ackLatencyNanos time from handing the write to the transport to its completion
+   * @param success true if the device acknowledged the write
+   */
+  public synchronized void recordWrite(long ackLatencyNanos, boolean success) {
+    writes++;
+    if (!success) {
+      failedWrites++;
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, ackLatencyNanos));
+    latencyHistogram[(int) Math.min(millis, MAX_LATENCY_MS)]++;
+  }
+
+  public synchronized int getWrites() {
+    return writes;
+  }
+
+  public synchronized int getFailedWrites() {
+    return failedWrites;
+  }
+
+  /**
+   * Get a percentile of the acknowledgement latency.
+   *
+   * @param percentile float on [0 100], e.g. 90
+   * @return latency in milliseconds, to the nearest ms, or -1 if no write was recorded
+   */
+  public synchronized float getAckLatencyPercentileMillis(float percentile) {
+    if (writes == 0) {
+      return -1;
+    }
+    int rank = (int) Math.ceil(writes * Math.max(0, Math.min(100, percentile)) / 100);
+    int seen = 0;
+    for (int ms = 0; ms < latencyHistogram.length; ms++) {
+      seen += latencyHistogram[ms];
+      if (seen >= Math.max(1, rank)) {
+        return ms;
+      }
+    }
+    return MAX_LATENCY_MS;
+  }
+}
@@ -0,0 +1,236 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link NeoFlow.Subscriber} that sends what it receives to the device and requests more only as
+ * the link drains. At most {@code window} items are ever queued in the {@link CommandWriter} or
+ * requested but not yet received, so a producer subscribed to this runs at the pace of the radio
+ * instead of filling an unbounded queue.
+ *
+ * <p>A subscriber given a publisher of link events (as by {@link
+ * NeosensoryBlessed#newFrameSubscriber()}) stops requesting while {@link #isLinkReady()} is false
+ * and resumes on the next connection or CLI readiness event, so a producer is not driven at full
+ * speed into a link that rejects every write. If the writer has been shut down the subscription is
+ * cancelled.
+ *
+ * @param <T> motor frames (int[]) or encoded commands (byte[])
+ */
+public abstract class LinkSubscriber<T> implements NeoFlow.Subscriber<T> {
+
+  private final CommandWriter commandWriter;
+  private final int window;
+  private final CommandWriter.CapacityListener capacityListener =
+      new CommandWriter.CapacityListener() {
+        @Override
+        public void onCapacityAvailable() {
+          refill();
+        }
+      };
+  // Refills asked for while one is running. Only the thread that takes it from 0 calls request, so
+  // requests reach the subscription serially and never while this is locked.
+  private final AtomicInteger refillsWanted = new AtomicInteger();
+  // Null unless requests are paused while the link is not ready
+  private final NeoFlow.Publisher<NeoEvent> linkEvents;
+  private final NeoFlow.Subscriber<NeoEvent> linkWatcher =
+      new NeoFlow.Subscriber<NeoEvent>() {
+        @Override
+        public void onSubscribe(NeoFlow.Subscription subscription) {
+          synchronized (LinkSubscriber.this) {
+            if (done) {
+              subscription.cancel();
+              return;
+            }
+            linkSubscription = subscription;
+          }
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(NeoEvent event) {
+          if (event.getType() != NeoEvent.Type.CLI_MESSAGE) {
+            refill();
+          }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {}
+
+        @Override
+        public void onComplete() {}
+      };
+
+  // Guarded by this
+  private NeoFlow.Subscription subscription;
+  private NeoFlow.Subscription linkSubscription;
+  private long outstanding;
+  private boolean done;
+
+  /**
+   * Create a subscriber that sends motor frames.
+   *
+   * @param pipeline the pipeline to send frames through
+   * @param window maximum number of frames queued or requested at once
+   * @return the subscriber
+   */
+  public static LinkSubscriber<int[]> forFrames(final OutboundPipeline pipeline, int window) {
+    return new LinkSubscriber<int[]>(pipeline.getCommandWriter(), window) {
+      @Override
+      protected boolean send(int[] motorValues) {
+        return pipeline.vibrateMotors(motorValues);
+      }
+    };
+  }
+
+  /**
+   * Create a subscriber that sends already encoded commands.
+   *
+   * @param pipeline the pipeline to send commands through
+   * @param window maximum number of commands queued or requested at once
+   * @return the subscriber
+   */
+  public static LinkSubscriber<byte[]> forCommands(final OutboundPipeline pipeline, int window) {
+    return new LinkSubscriber<byte[]>(pipeline.getCommandWriter(), window) {
+      @Override
+      protected boolean send(byte[] payload) {
+        return pipeline.submitCommand(payload);
+      }
+    };
+  }
+
+  /**
+   * Create a subscriber.
+   *
+   * @param commandWriter the writer whose queue depth paces requests
+   * @param window maximum number of items queued or requested at once
+   */
+  protected LinkSubscriber(CommandWriter commandWriter, int window) {
+    this(commandWriter, window, null);
+  }
+
+  /**
+   * Create a subscriber that only requests items while {@link #isLinkReady()} is true.
+   *
+   * @param commandWriter the writer whose queue depth paces requests
+   * @param window maximum number of items queued or requested at once
+   * @param linkEvents publisher of the connection and CLI readiness events on which requests
+   *     resume, or null to request regardless of the link
+   */
+  protected LinkSubscriber(
+      CommandWriter commandWriter, int window, NeoFlow.Publisher<NeoEvent> linkEvents) {
+    if (window < 1) {
+      throw new IllegalArgumentException("Window must be at least 1");
+    }
+    this.commandWriter = commandWriter;
+    this.window = window;
+    this.linkEvents = linkEvents;
+  }
+
+  /**
+   * Send one item to the device.
+   *
+   * @param item the item
+   * @return false if the writer no longer accepts items
+   */
+  protected abstract boolean send(T item);
+
+  /**
+   * Check whether the link can carry items now. Only consulted when link events were given.
+   *
+   * @return true to keep requesting items
+   */
+  protected boolean isLinkReady() {
+    return true;
+  }
+
+  @Override
+  public void onSubscribe(NeoFlow.Subscription subscription) {
+    synchronized (this) {
+      if (this.subscription != null || done) {
+        // Only one upstream at a time
+        subscription.cancel();
+        return;
+      }
+      this.subscription = subscription;
+    }
+    commandWriter.addCapacityListener(capacityListener);
+    if (linkEvents != null) {
+      linkEvents.subscribe(linkWatcher);
+    }
+    refill();
+  }
+
+  @Override
+  public void onNext(T item) {
+    synchronized (this) {
+      outstanding--;
+    }
+    if (!send(item)) {
+      cancel();
+      return;
+    }
+    // The item may not have reached the writer's queue (e.g. a governor held it back), in which
+    // case no capacity notification will follow it
+    refill();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    finish();
+  }
+
+  @Override
+  public void onComplete() {
+    finish();
+  }
+
+  /** Stop receiving items. Items already queued are still sent. */
+  public void cancel() {
+    NeoFlow.Subscription current;
+    synchronized (this) {
+      current = subscription;
+    }
+    finish();
+    if (current != null) {
+      current.cancel();
+    }
+  }
+
+  // Top up requests so that queued plus requested items fill the window
+  private void refill() {
+    if (refillsWanted.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      NeoFlow.Subscription current;
+      long wanted = 0;
+      synchronized (this) {
+        current = subscription;
+        if (current != null && !done && (linkEvents == null || isLinkReady())) {
+          wanted = window - commandWriter.getPendingCount() - outstanding;
+          if (wanted > 0) {
+            outstanding += wanted;
+          }
+        }
+      }
+      if (wanted > 0) {
+        current.request(wanted);
+      }
+      missed = refillsWanted.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void finish() {
+    NeoFlow.Subscription watching;
+    synchronized (this) {
+      done = true;
+      watching = linkSubscription;
+      linkSubscription = null;
+    }
+    commandWriter.removeCapacityListener(capacityListener);
+    if (watching != null) {
+      watching.cancel();
+    }
+  }
+}
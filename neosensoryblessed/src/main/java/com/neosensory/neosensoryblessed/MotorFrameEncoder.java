@@ -0,0 +1,49 @@
+package com.neosensory.neosensoryblessed;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes motor frames into the CLI's "motors vibrate" command. The command is built directly into
+ * a single byte array (the Base64 encoding is done inline), so encoding a frame costs exactly one
+ * allocation: the payload that is handed to the writer.
+ */
+public final class MotorFrameEncoder {
+
+  private static final byte[] VIBRATE_PREFIX =
+      "motors vibrate ".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] BASE64_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+          .getBytes(StandardCharsets.US_ASCII);
+  private static final byte PAD = '=';
+  private static final byte NEWLINE = '\n';
+
+  private MotorFrameEncoder() {}
+
+  /**
+   * Encode a frame as sent by {@link NeosensoryBlessed#vibrateMotors(int[])}.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]
+   * @param intensityMap map applied to each motor value before encoding
+   * @return the UTF-8 bytes of "motors vibrate &lt;base64 frame&gt;\n"
+   */
+  public static byte[] encodeVibrate(int[] motorValues, IntensityMap intensityMap) {
+    int numMotors = motorValues.length;
+    int encodedLength = ((numMotors + 2) / 3) * 4;
+    byte[] command = new byte[VIBRATE_PREFIX.length + encodedLength + 1];
+    System.arraycopy(VIBRATE_PREFIX, 0, command, 0, VIBRATE_PREFIX.length);
+    int out = VIBRATE_PREFIX.length;
+    for (int i = 0; i < numMotors; i += 3) {
+      int remaining = numMotors - i;
+      int b0 = intensityMap.lookup(i, motorValues[i]);
+      int b1 = remaining > 1 ? intensityMap.lookup(i + 1, motorValues[i + 1]) : 0;
+      int b2 = remaining > 2 ? intensityMap.lookup(i + 2, motorValues[i + 2]) : 0;
+      int bits = (b0 << 16) | (b1 << 8) | b2;
+      command[out++] = BASE64_ALPHABET[(bits >>> 18) & 0x3F];
+      command[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+      command[out++] = remaining > 1 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : PAD;
+      command[out++] = remaining > 2 ? BASE64_ALPHABET[bits & 0x3F] : PAD;
+    }
+    command[out] = NEWLINE;
+    return command;
+  }
+}
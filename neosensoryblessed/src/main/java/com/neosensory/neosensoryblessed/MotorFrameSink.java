@@ -0,0 +1,14 @@
+package com.neosensory.neosensoryblessed;
+
+/** Something that accepts motor frames, e.g. a connected device via {@link NeosensoryBlessed}. */
+public interface MotorFrameSink {
+
+  /**
+   * Set the actuator amplitudes.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]. The sink must not keep a
+   *     reference to the array after returning, so callers may reuse it for the next frame.
+   * @return true if the frame was accepted
+   */
+  boolean vibrateMotors(int[] motorValues);
+}
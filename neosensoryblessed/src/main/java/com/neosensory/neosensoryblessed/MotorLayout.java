@@ -0,0 +1,97 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.Arrays;
+
+/**
+ * Physical arrangement of a device's motors, expressed as positions on [0 1]. A linear layout is a
+ * strip whose ends are not adjacent, while a circular layout wraps so that the last motor neighbors
+ * the first (e.g. motors placed evenly around the wrist).
+ */
+public final class MotorLayout {
+
+  private final float[] positions;
+  private final boolean circular;
+
+  /**
+   * Layout of a Neosensory Buzz, matching {@link NeoBuzzPsychophysics#GetIllusionActivations}: 4
+   * motors spread evenly from 0 to 1 without wrapping.
+   *
+   * @return the Buzz layout
+   */
+  public static MotorLayout buzz() {
+    return linear(NeoBuzzPsychophysics.NumMotors);
+  }
+
+  /**
+   * Create a layout with motors spread evenly from 0 to 1 (inclusive).
+   *
+   * @param numMotors number of motors, at least 2
+   * @return the layout
+   */
+  public static MotorLayout linear(int numMotors) {
+    if (numMotors < 2) {
+      throw new IllegalArgumentException("A linear layout needs at least 2 motors");
+    }
+    float[] positions = new float[numMotors];
+    for (int i = 0; i < numMotors; i++) {
+      positions[i] = (float) i / (numMotors - 1);
+    }
+    return new MotorLayout(positions, false);
+  }
+
+  /**
+   * Create a layout with motors spread evenly around a ring, the first at position 0.
+   *
+   * @param numMotors number of motors, at least 2
+   * @return the layout
+   */
+  public static MotorLayout circular(int numMotors) {
+    if (numMotors < 2) {
+      throw new IllegalArgumentException("A circular layout needs at least 2 motors");
+    }
+    float[] positions = new float[numMotors];
+    for (int i = 0; i < numMotors; i++) {
+      positions[i] = (float) i / numMotors;
+    }
+    return new MotorLayout(positions, true);
+  }
+
+  /**
+   * Create a layout from explicit motor positions.
+   *
+   * @param positions position of each motor on [0 1], in motor index order and strictly increasing
+   * @param circular true if position 1 wraps around to position 0
+   * @return the layout
+   */
+  public static MotorLayout custom(float[] positions, boolean circular) {
+    if (positions.length < 2) {
+      throw new IllegalArgumentException("A layout needs at least 2 motors");
+    }
+    for (int i = 0; i < positions.length; i++) {
+      if (positions[i] < 0 || positions[i] > 1 || (i > 0 && positions[i] <= positions[i - 1])) {
+        throw new IllegalArgumentException("Motor positions must be increasing on [0 1]");
+      }
+    }
+    if (circular && positions[positions.length - 1] - positions[0] >= 1) {
+      throw new IllegalArgumentException("First and last motors of a ring must not coincide");
+    }
+    return new MotorLayout(Arrays.copyOf(positions, positions.length), circular);
+  }
+
+  private MotorLayout(float[] positions, boolean circular) {
+    this.positions = positions;
+    this.circular = circular;
+  }
+
+  public int getNumMotors() {
+    return positions.length;
+  }
+
+  public float getPosition(int motorIndex) {
+    return positions[motorIndex];
+  }
+
+  public boolean isCircular() {
+    return circular;
+  }
+}
@@ -0,0 +1,94 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded lock-free multi-producer single-consumer queue. Any number of threads may call {@link
+ * #offer(Object)} concurrently, but {@link #poll()}, {@link #peek()} and {@link #isEmpty()} must
+ * only ever be called from one consumer thread.
+ *
+ * <p>Producers claim their slot with a single atomic swap of the tail and then link the previous
+ * node to it, so no producer ever waits on another. A consumer may briefly observe an empty queue
+ * while a producer sits between those two steps; callers that park on an empty queue should be
+ * woken by the producer after {@link #offer(Object)} returns.
+ *
+ * @param <E> type of element held by the queue
+ */
+final class MpscQueue<E> {
+
+  private static final class Node<E> {
+    E value;
+    volatile Node<E> next;
+
+    Node(E value) {
+      this.value = value;
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+      AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+  // Producers swap the tail. The head is a stub node owned by the consumer.
+  private final AtomicReference<Node<E>> tail;
+  private Node<E> head;
+
+  MpscQueue() {
+    Node<E> stub = new Node<>(null);
+    head = stub;
+    tail = new AtomicReference<>(stub);
+  }
+
+  /**
+   * Append an element. Safe to call from any thread.
+   *
+   * @param value non-null element to append
+   */
+  @SuppressWarnings("unchecked")
+  void offer(E value) {
+    if (value == null) {
+      throw new NullPointerException("MpscQueue does not accept null elements");
+    }
+    Node<E> node = new Node<>(value);
+    Node<E> previous = tail.getAndSet(node);
+    // Ordered store is enough here: the consumer reads next with volatile semantics
+    NEXT.lazySet(previous, node);
+  }
+
+  /**
+   * Remove and return the head element. Consumer thread only.
+   *
+   * @return the head element, or null if the queue is (momentarily) empty
+   */
+  E poll() {
+    Node<E> next = head.next;
+    if (next == null) {
+      return null;
+    }
+    E value = next.value;
+    // The dequeued node becomes the new stub; drop its reference so the value can be collected
+    next.value = null;
+    head = next;
+    return value;
+  }
+
+  /**
+   * Return the head element without removing it. Consumer thread only.
+   *
+   * @return the head element, or null if the queue is (momentarily) empty
+   */
+  E peek() {
+    Node<E> next = head.next;
+    return next == null ? null : next.value;
+  }
+
+  /**
+   * Check whether there is anything to consume. Consumer thread only.
+   *
+   * @return true if no linked element is currently visible to the consumer
+   */
+  boolean isEmpty() {
+    return head.next == null;
+  }
+}
@@ -1,6 +1,7 @@
 package com.neosensory.neosensoryblessed;
 
-// A set of tools to help produce motor encodings specifically for Neosensory Buzz
+// A set of tools to help produce motor encodings specifically for Neosensory Buzz. MinIntensity and
+// MaxIntensity are shared by the whole process; for per-user calibration see CalibrationProfile.
 public class NeoBuzzPsychophysics {
   public static int MinIntensity = 15;
   public static int MaxIntensity = 255;
@@ -30,7 +31,8 @@ public class NeoBuzzPsychophysics {
   /**
    * With Buzz, rather than feeling 4 discrete locations for each actuator around the wrist, it is
    * possible to use a haptic illusion to create perceived points of vibration interpolated between
-   * the actuators.
+   * the actuators. For other motor layouts, several simultaneous points or moving points, see
+   * {@link SpatialRenderer}.
    *
    * @param linearIntensity: float on [0 1] of a vibrational intensity to be perceived
    * @param location float on [0 1] for the location around the wrist where the perceived vibration
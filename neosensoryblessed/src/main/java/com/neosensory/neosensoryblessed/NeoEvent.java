@@ -0,0 +1,98 @@
+package com.neosensory.neosensoryblessed;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A CLI message or connection state change, as published by {@link NeoEventPublisher}. These carry
+ * the same information as the "BlessedBroadcast" intents.
+ */
+public final class NeoEvent {
+
+  /** What an event reports. */
+  public enum Type {
+    /** Output from the device CLI; see {@link #getMessage()}. */
+    CLI_MESSAGE,
+    /** The device connected or disconnected; see {@link #getState()}. */
+    CONNECTION,
+    /** The CLI became ready or unavailable; see {@link #getState()}. */
+    CLI_READINESS
+  }
+
+  private final Type type;
+  private final String message;
+  private final boolean state;
+  private final long timeNanos;
+
+  private NeoEvent(Type type, String message, boolean state) {
+    this.type = type;
+    this.message = message;
+    this.state = state;
+    timeNanos = System.nanoTime();
+  }
+
+  static NeoEvent cliMessage(String message) {
+    return new NeoEvent(Type.CLI_MESSAGE, message, false);
+  }
+
+  static NeoEvent stateChange(Type type, boolean state) {
+    return new NeoEvent(type, null, state);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Get the CLI output of a CLI_MESSAGE event.
+   *
+   * @return the raw message, or null for other event types
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Get the new state of a CONNECTION or CLI_READINESS event.
+   *
+   * @return true if connected / ready, false otherwise
+   */
+  public boolean getState() {
+    return state;
+  }
+
+  /**
+   * Get when the event happened.
+   *
+   * @return System.nanoTime() at the time the event was published
+   */
+  public long getTimeNanos() {
+    return timeNanos;
+  }
+
+  /**
+   * Parse a CLI_MESSAGE event as JSON, which is how the device answers most commands. The message
+   * is parsed on every call.
+   *
+   * @return the parsed message, or null if this is not a CLI message holding a JSON object
+   */
+  public JSONObject getJson() {
+    if (message == null) {
+      return null;
+    }
+    int start = message.indexOf('{');
+    if (start < 0) {
+      return null;
+    }
+    try {
+      return new JSONObject(message.substring(start));
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return type == Type.CLI_MESSAGE ? type + ": " + message : type + ": " + state;
+  }
+}
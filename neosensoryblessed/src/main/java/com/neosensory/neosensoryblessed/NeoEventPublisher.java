@@ -0,0 +1,159 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes {@link NeoEvent}s to any number of subscribers, each at the pace it requests. Events
+ * are delivered on the thread that published them or on the subscriber's thread calling request,
+ * never concurrently for one subscriber.
+ *
+ * <p>The device can't be asked to slow down, so a subscriber that requests less than arrives has
+ * its events buffered up to a limit, after which the oldest CLI messages are dropped. Connection
+ * and readiness changes are only dropped once the buffer holds nothing else.
+ */
+public class NeoEventPublisher implements NeoFlow.Publisher<NeoEvent> {
+
+  private static final int DEFAULT_BUFFER_SIZE = 256;
+
+  private final CopyOnWriteArrayList<EventSubscription> subscriptions =
+      new CopyOnWriteArrayList<>();
+  private final int bufferSize;
+
+  /** Create a publisher that buffers up to 256 events per subscriber. */
+  public NeoEventPublisher() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a publisher.
+   *
+   * @param bufferSize number of undelivered events kept per subscriber
+   */
+  public NeoEventPublisher(int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be at least 1");
+    }
+    this.bufferSize = bufferSize;
+  }
+
+  @Override
+  public void subscribe(NeoFlow.Subscriber<? super NeoEvent> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber must not be null");
+    }
+    EventSubscription subscription = new EventSubscription(subscriber);
+    // Events arriving before onSubscribe returns are buffered; none are delivered until requested
+    subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+  }
+
+  /**
+   * Deliver an event to every current subscriber.
+   *
+   * @param event the event
+   */
+  public void publish(NeoEvent event) {
+    for (EventSubscription subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /**
+   * Get the number of subscribers that have not cancelled.
+   *
+   * @return the current number of subscribers
+   */
+  public int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  private final class EventSubscription implements NeoFlow.Subscription {
+    private final NeoFlow.Subscriber<? super NeoEvent> subscriber;
+    // Guarded by this
+    private final ArrayDeque<NeoEvent> buffer = new ArrayDeque<>();
+    private long requested;
+    private boolean draining;
+    private boolean cancelled;
+
+    EventSubscription(NeoFlow.Subscriber<? super NeoEvent> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    void offer(NeoEvent event) {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        if (buffer.size() >= bufferSize) {
+          dropOldestMessage();
+        }
+        buffer.addLast(event);
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        cancel();
+        subscriber.onError(new IllegalArgumentException("Request must be positive, was " + n));
+        return;
+      }
+      synchronized (this) {
+        requested += n;
+        if (requested < 0) {
+          // Overflow: treat as unbounded demand
+          requested = Long.MAX_VALUE;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        cancelled = true;
+        buffer.clear();
+      }
+      subscriptions.remove(this);
+    }
+
+    // Only one thread delivers at a time; one arriving while another delivers leaves its work to
+    // it, which also keeps a request() from inside onNext from recursing.
+    private void drain() {
+      synchronized (this) {
+        if (draining) {
+          return;
+        }
+        draining = true;
+      }
+      while (true) {
+        NeoEvent event;
+        synchronized (this) {
+          if (cancelled || requested == 0 || buffer.isEmpty()) {
+            draining = false;
+            return;
+          }
+          event = buffer.pollFirst();
+          if (requested != Long.MAX_VALUE) {
+            requested--;
+          }
+        }
+        subscriber.onNext(event);
+      }
+    }
+
+    private void dropOldestMessage() {
+      for (Iterator<NeoEvent> it = buffer.iterator(); it.hasNext(); ) {
+        if (it.next().getType() == NeoEvent.Type.CLI_MESSAGE) {
+          it.remove();
+          return;
+        }
+      }
+      // Nothing but state changes buffered; the oldest has been superseded anyway
+      buffer.pollFirst();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * Reactive-streams interfaces with the same shape as {@code java.util.concurrent.Flow}, which
+ * Android only provides from API level 30. Any Flow or Reactive Streams implementation can be
+ * bridged to these with a one-line adapter per method.
+ *
+ * <p>Used by {@link LinkSubscriber} to pull motor frames only as fast as the link drains them, and
+ * by {@link NeoEventPublisher} to push CLI messages and connection events to subscribers that
+ * request them.
+ */
+public final class NeoFlow {
+
+  private NeoFlow() {}
+
+  /**
+   * A producer of items that subscribers receive in response to {@link Subscription#request}.
+   *
+   * @param <T> the item type
+   */
+  public interface Publisher<T> {
+    /**
+     * Add a subscriber. The publisher calls {@link Subscriber#onSubscribe} before anything else.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items. Methods are called serially for a given subscription.
+   *
+   * @param <T> the item type
+   */
+  public interface Subscriber<T> {
+    /**
+     * Called once, before any other method, with the subscription used to request items.
+     *
+     * @param subscription the new subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, at most as many times as items were requested.
+     *
+     * @param item the item
+     */
+    void onNext(T item);
+
+    /**
+     * Called once if the publisher fails. No further methods are called.
+     *
+     * @param throwable the failure
+     */
+    void onError(Throwable throwable);
+
+    /** Called once when the publisher has no more items. No further methods are called. */
+    void onComplete();
+  }
+
+  /** The link between one publisher and one subscriber. */
+  public interface Subscription {
+    /**
+     * Add to the number of items the subscriber is ready to receive.
+     *
+     * @param n number of additional items, greater than 0
+     */
+    void request(long n);
+
+    /** Stop receiving items. Items already in flight may still arrive. */
+    void cancel();
+  }
+}
@@ -0,0 +1,159 @@
+package com.neosensory.neosensoryblessed;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight trace of link activity (writes, notifications, connection changes) kept in a
+ * preallocated ring buffer of fixed-size binary events. Recording an event is a level check, an
+ * atomic increment and two array stores, with no formatting or allocation, so tracing can stay on
+ * while streaming. Events are only turned into text when {@link #dump()} is called.
+ *
+ * <p>Events are recorded from several threads without locking. A dump taken while events are being
+ * recorded may show the oldest entry half-overwritten; it is meant for debugging, not accounting.
+ */
+public class NeoTrace {
+
+  /** How much is recorded. Each level includes everything recorded by the levels before it. */
+  public enum Level {
+    /** Record nothing. Recording costs a single field read. */
+    OFF,
+    /** Record failed writes, failed notifications and connection changes. */
+    ERRORS,
+    /** Record every write and notification as well. */
+    ALL
+  }
+
+  /** Kind of event recorded. Stored as its ordinal, so only append new types at the end. */
+  public enum EventType {
+    WRITE,
+    NOTIFY,
+    CONNECT,
+    DISCONNECT,
+    CLI_READY
+  }
+
+  private static final EventType[] EVENT_TYPES = EventType.values();
+
+  private final int capacity;
+  private final int mask;
+  // Two longs per event: [timestamp nanos][type << 48 | (status & 0xFFFF) << 32 | length]
+  private final long[] events;
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile Level level;
+
+  /**
+   * Create a trace.
+   *
+   * @param capacity number of events kept before the oldest are overwritten. Rounded up to a power
+   *     of two.
+   * @param level initial level
+   */
+  public NeoTrace(int capacity, Level level) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.capacity = size;
+    mask = size - 1;
+    events = new long[size * 2];
+    this.level = level;
+  }
+
+  public void setLevel(Level level) {
+    this.level = level;
+  }
+
+  public Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Check whether events of the given severity are currently recorded. Callers can use this to skip
+   * any work done only to produce an event.
+   *
+   * @param failed true for a failure event, false for routine traffic
+   * @return true if such an event would be recorded
+   */
+  public boolean isEnabled(boolean failed) {
+    Level current = level;
+    return current == Level.ALL || (failed && current == Level.ERRORS);
+  }
+
+  /**
+   * Record an event if the level allows it.
+   *
+   * @param type what happened
+   * @param length payload length in bytes, 0 if not applicable
+   * @param status GATT status, 0 (success) if not applicable
+   */
+  public void record(EventType type, int length, int status) {
+    // Connection changes are recorded at ERRORS even when they succeed, so that a trace shows the
+    // connects that come before its disconnects
+    boolean failed = status != 0 || isConnectionChange(type);
+    if (!isEnabled(failed)) {
+      return;
+    }
+    long timestamp = System.nanoTime();
+    int slot = (int) (sequence.getAndIncrement() & mask) * 2;
+    events[slot] = timestamp;
+    events[slot + 1] =
+        ((long) type.ordinal() << 48) | ((long) (status & 0xFFFF) << 32) | (length & 0xFFFFFFFFL);
+  }
+
+  private static boolean isConnectionChange(EventType type) {
+    return type == EventType.CONNECT || type == EventType.DISCONNECT || type == EventType.CLI_READY;
+  }
+
+  /**
+   * Get the total number of events recorded since creation (or the last clear), including those
+   * that have since been overwritten.
+   *
+   * @return the event count
+   */
+  public long getRecordedCount() {
+    return sequence.get();
+  }
+
+  /** Discard all recorded events. */
+  public void clear() {
+    sequence.set(0);
+  }
+
+  /**
+   * Render the retained events, oldest first, one per line. Times are relative to the oldest event.
+   *
+   * @return the formatted trace
+   */
+  public String dump() {
+    long end = sequence.get();
+    long start = Math.max(0, end - capacity);
+    StringBuilder builder = new StringBuilder();
+    long origin = end > start ? events[(int) (start & mask) * 2] : 0;
+    for (long i = start; i < end; i++) {
+      int slot = (int) (i & mask) * 2;
+      long packed = events[slot + 1];
+      int type = (int) (packed >>> 48);
+      builder
+          .append(String.format("%10.3f ms ", (events[slot] - origin) / 1e6))
+          .append(type < EVENT_TYPES.length ? EVENT_TYPES[type].name() : "UNKNOWN")
+          .append(" len=")
+          .append((int) packed)
+          .append(" status=")
+          .append((short) (packed >>> 32))
+          .append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Write the retained events to logcat.
+   *
+   * @param tag logcat tag to use
+   */
+  public void dumpToLog(String tag) {
+    for (String line : dump().split("\n")) {
+      if (!line.isEmpty()) {
+        Log.i(tag, line);
+      }
+    }
+  }
+}
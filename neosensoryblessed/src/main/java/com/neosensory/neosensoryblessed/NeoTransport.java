@@ -0,0 +1,21 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * The link that encoded CLI commands are written to. In the SDK this is the UART RX characteristic
+ * of a connected Neosensory device, but any implementation (e.g. a simulated link for testing) can
+ * be driven by a {@link CommandWriter}.
+ *
+ * <p>Writes are asynchronous: {@link #write(byte[])} only starts a write, and the implementation
+ * must later report the outcome through {@link CommandWriter#onWriteComplete(boolean)}.
+ */
+public interface NeoTransport {
+
+  /**
+   * Start writing a payload to the link. This is only ever called from the writer thread.
+   *
+   * @param payload the encoded command bytes. The array must not be modified by the transport.
+   * @return true if the write was started and a completion will follow. False if the link is not
+   *     able to accept the write, in which case no completion is expected.
+   */
+  boolean write(byte[] payload);
+}
@@ -18,21 +18,29 @@ import com.welie.blessed.BluetoothCentralCallback;
 import com.welie.blessed.BluetoothPeripheral;
 import com.welie.blessed.BluetoothPeripheralCallback;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static android.bluetooth.BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
-import static com.welie.blessed.BluetoothBytesParser.bytes2String;
 import static com.welie.blessed.BluetoothPeripheral.GATT_SUCCESS;
 
-public class NeosensoryBlessed {
+public class NeosensoryBlessed implements MotorFrameSink {
 
   private final String TAG = NeosensoryBlessed.class.getSimpleName();
 
   private static final int REQUEST_ENABLE_BT = 1;
   public static final int MAX_VIBRATION_AMP = 255;
   public static final int MIN_VIBRATION_AMP = 0;
+  private static final int TRACE_CAPACITY = 1024;
+  // One frame being written plus one waiting keeps the link busy without adding latency
+  private static final int SUBSCRIBER_WINDOW = 2;
 
   // UUIDs for Neosensory UART over BLE
   private static final UUID UART_OVER_BLE_SERVICE_UUID =
@@ -52,15 +60,61 @@ public class NeosensoryBlessed {
   private BluetoothCentral central;
   private static NeosensoryBlessed instance = null;
   private Context context;
-  private Handler handler = new Handler();
-  private static BluetoothPeripheral neoPeripheral = null;
-  private static BluetoothGattCharacteristic neoWriteCharacteristic = null;
+  private final Handler handler = new Handler();
+  private final CommandWriter commandWriter;
+  private final OutboundPipeline outboundPipeline;
+  private final DeviceStatusCache statusCache;
+  private final NeoTrace trace = new NeoTrace(TRACE_CAPACITY, NeoTrace.Level.ERRORS);
+  private final NeoEventPublisher eventPublisher = new NeoEventPublisher();
+  // Created on first use by the stream start methods; guarded by this
+  private FrameScheduler streamScheduler = null;
+  // Non-null only while the power governor is enabled
+  private volatile PowerGovernor powerGovernor = null;
+  private final LinkQualityStore linkQualityStore;
+  // Link statistics of the current session, remembered per device to rank it in later discoveries
+  private final LinkSessionStats sessionStats = new LinkSessionStats();
 
-  // State information
-  private boolean autoReconnectEnabled;
-  private boolean neoDeviceConnected = false;
-  private boolean neoCliReady = false;
-  private String neoCliResponse = "";
+  // Ranked discovery state, only touched on the Bluetooth handler thread. A scan window of 0
+  // connects to the first matching device instead.
+  private final long scanWindowMs;
+  private final int maxCandidates;
+  // What to scan for: a single address, or else any of the names
+  private final String scanAddress;
+  private final String[] scanNames;
+  private final DiscoveryReport.Listener discoveryListener;
+  private DiscoverySelector discoverySelector = null;
+  private final Map<String, BluetoothPeripheral> discoveredPeripherals = new HashMap<>();
+  private final List<DiscoveryCandidate> fallbackCandidates = new ArrayList<>();
+  private final Runnable finishDiscovery =
+      new Runnable() {
+        @Override
+        public void run() {
+          selectDiscoveredPeripheral();
+        }
+      };
+  // Abandons a search for a device, so that nothing connects after an intentional disconnect
+  private final Runnable stopSearch =
+      new Runnable() {
+        @Override
+        public void run() {
+          central.stopScan();
+          handler.removeCallbacks(finishDiscovery);
+          discoverySelector = null;
+          fallbackCandidates.clear();
+          discoveredPeripherals.clear();
+        }
+      };
+  private static volatile BluetoothPeripheral neoPeripheral = null;
+  private static volatile BluetoothGattCharacteristic neoWriteCharacteristic = null;
+
+  // State information. Written on the Bluetooth callback thread and read from any thread, so each
+  // field is volatile to guarantee readers see the latest value.
+  private final boolean autoReconnectEnabled;
+  private volatile boolean neoDeviceConnected = false;
+  private volatile boolean neoCliReady = false;
+  // Set by disconnectNeoDevice so that the disconnect it causes is not undone by auto reconnect
+  private volatile boolean disconnectRequested = false;
+  private volatile String neoCliResponse = "";
 
   private enum StatusUpdateType {
     CLIREADINESS,
@@ -95,17 +149,131 @@ public class NeosensoryBlessed {
     return neoCliResponse;
   }
 
-  // sendCommand encodes the command strings for the CLI in the proper format.
+  /**
+   * Get the number of commands waiting to be written to the device. Useful for producers that want
+   * to avoid building up latency when streaming faster than the link can absorb.
+   *
+   * @return number of queued commands not yet handed to the Bluetooth stack
+   */
+  public int getPendingCommandCount() {
+    return commandWriter.getPendingCount();
+  }
+
+  /**
+   * Get a publisher of CLI messages and connection events, carrying the same information as the
+   * "BlessedBroadcast" intents, for reactive code that prefers subscribing to registering a
+   * BroadcastReceiver.
+   *
+   * @return the event publisher for this instance
+   */
+  public NeoFlow.Publisher<NeoEvent> getEventPublisher() {
+    return eventPublisher;
+  }
+
+  /**
+   * Create a subscriber that streams motor frames to the device, requesting frames from its
+   * publisher only as the link absorbs them. Subscribe it to a frame producer to have backpressure
+   * from the radio reach the producer. No frames are requested while the device is disconnected or
+   * its CLI is not ready.
+   *
+   * @return a new subscriber; each may be subscribed once
+   */
+  public LinkSubscriber<int[]> newFrameSubscriber() {
+    return new LinkSubscriber<int[]>(commandWriter, SUBSCRIBER_WINDOW, eventPublisher) {
+      @Override
+      protected boolean send(int[] motorValues) {
+        return outboundPipeline.vibrateMotors(motorValues);
+      }
+
+      @Override
+      protected boolean isLinkReady() {
+        return neoDeviceConnected && neoCliReady;
+      }
+    };
+  }
+
+  /**
+   * Create a subscriber that streams already encoded commands to the device, with the same
+   * backpressure and readiness gating as newFrameSubscriber().
+   *
+   * @return a new subscriber; each may be subscribed once
+   */
+  public LinkSubscriber<byte[]> newCommandSubscriber() {
+    return new LinkSubscriber<byte[]>(commandWriter, SUBSCRIBER_WINDOW, eventPublisher) {
+      @Override
+      protected boolean send(byte[] payload) {
+        return outboundPipeline.submitCommand(payload);
+      }
+
+      @Override
+      protected boolean isLinkReady() {
+        return neoDeviceConnected && neoCliReady;
+      }
+    };
+  }
+
+  /**
+   * Get the trace of link activity. By default only failures and connection changes are recorded;
+   * call setLevel(NeoTrace.Level.ALL) on it to record every write and notification, and dump() or
+   * dumpToLog() to inspect it.
+   *
+   * @return the trace for this instance
+   */
+  public NeoTrace getTrace() {
+    return trace;
+  }
+
+  /**
+   * Start recording every outbound command and inbound CLI notification to a file, for later
+   * reproduction with SessionReplayer. Any recording already in progress is stopped first.
+   *
+   * @param file where to write the recording. An existing file is replaced.
+   * @throws IOException if the file can't be created
+   */
+  public synchronized void startSessionRecording(File file) throws IOException {
+    stopSessionRecording();
+    outboundPipeline.setSessionRecorder(new SessionRecorder(file));
+  }
+
+  /**
+   * Stop recording and close the recording file. Does nothing if no recording is in progress.
+   *
+   * @throws IOException if writing the recording failed
+   */
+  public synchronized void stopSessionRecording() throws IOException {
+    SessionRecorder recorder = outboundPipeline.getSessionRecorder();
+    if (recorder != null) {
+      outboundPipeline.setSessionRecorder(null);
+      recorder.stop();
+    }
+  }
+
+  // sendCommand encodes the command strings for the CLI in the proper format and hands them to the
+  // single writer thread. Safe to call from any thread.
   private boolean sendCommand(String CliCommand) {
     if ((neoDeviceConnected) && (neoCliReady)) {
       byte[] CliBytes = CliCommand.getBytes(StandardCharsets.UTF_8);
-      neoPeripheral.writeCharacteristic(neoWriteCharacteristic, CliBytes, WRITE_TYPE_DEFAULT);
-      return true;
+      return outboundPipeline.submitCommand(CliBytes);
     } else {
       return false;
     }
   }
 
+  // The transport used by the writer thread. Readiness is checked again at write time, since the
+  // link may have dropped while the command was queued.
+  private final NeoTransport uartTransport =
+      new NeoTransport() {
+        @Override
+        public boolean write(byte[] payload) {
+          BluetoothPeripheral peripheral = neoPeripheral;
+          BluetoothGattCharacteristic characteristic = neoWriteCharacteristic;
+          if (!neoDeviceConnected || !neoCliReady || peripheral == null || characteristic == null) {
+            return false;
+          }
+          return peripheral.writeCharacteristic(characteristic, payload, WRITE_TYPE_DEFAULT);
+        }
+      };
+
   // TODO: Create sync + async modes for awaiting CLI feedback
 
   /**
@@ -177,24 +345,91 @@ public class NeosensoryBlessed {
   }
 
   /**
-   * Obtain the device’s battery level in %. This command does not require developer authorization
+   * Obtain the device’s battery level in %. This command does not require developer authorization.
+   * The response is broadcast as a CLI message. A response younger than the status cache TTL is
+   * re-broadcast without querying the device, and calls made while a query is outstanding share it.
    *
    * @return true if connected to a valid device that is ready to accept CLI commands. TODO: handle
    *     returning JSON response from the device
    */
   public boolean getBatteryLevel() {
-    return sendCommand("device battery_soc\n");
+    return requestCachedStatus(DeviceStatusCache.Query.BATTERY_LEVEL);
   }
 
   /**
    * Obtain various device and firmware information. This command does not require developer
-   * authorization.
+   * authorization. The response is broadcast as a CLI message, and is cached like getBatteryLevel.
    *
    * @return true if connected to a valid device that is ready to accept CLI commands. TODO: handle
    *     returning JSON response from the device
    */
   public boolean getDeviceInfo() {
-    return sendCommand("device info\n");
+    return requestCachedStatus(DeviceStatusCache.Query.DEVICE_INFO);
+  }
+
+  /**
+   * Obtain the device’s battery level response through a callback instead of a broadcast. Cached
+   * and coalesced like getBatteryLevel; queries are sent behind any streaming traffic.
+   *
+   * @param callback receives the raw response (see DeviceStatusCache.parseBatteryLevel), or null if
+   *     the device disconnected or did not respond in time
+   * @return true if connected to a valid device that is ready to accept CLI commands.
+   */
+  public boolean requestBatteryLevel(DeviceStatusCache.StatusCallback callback) {
+    return requestStatus(DeviceStatusCache.Query.BATTERY_LEVEL, callback);
+  }
+
+  /**
+   * Obtain the device info response through a callback instead of a broadcast. Cached and coalesced
+   * like getDeviceInfo; queries are sent behind any streaming traffic.
+   *
+   * @param callback receives the raw response, or null if the device disconnected or did not
+   *     respond in time
+   * @return true if connected to a valid device that is ready to accept CLI commands.
+   */
+  public boolean requestDeviceInfo(DeviceStatusCache.StatusCallback callback) {
+    return requestStatus(DeviceStatusCache.Query.DEVICE_INFO, callback);
+  }
+
+  /**
+   * Get the last known battery level without querying the device.
+   *
+   * @return the battery level in %, or -1 if no response younger than the cache TTL is available
+   */
+  public float getCachedBatteryLevel() {
+    return DeviceStatusCache.parseBatteryLevel(
+        statusCache.getCached(DeviceStatusCache.Query.BATTERY_LEVEL));
+  }
+
+  /**
+   * Set how long battery level and device info responses are served from the cache.
+   *
+   * @param ttlMs time-to-live in milliseconds (default 60000). 0 always queries the device.
+   */
+  public void setStatusCacheTtl(long ttlMs) {
+    statusCache.setTtl(ttlMs);
+  }
+
+  private boolean requestStatus(
+      DeviceStatusCache.Query query, DeviceStatusCache.StatusCallback callback) {
+    if ((neoDeviceConnected) && (neoCliReady)) {
+      return statusCache.request(query, callback);
+    } else {
+      return false;
+    }
+  }
+
+  // Keeps the broadcast behaviour of the original getters: a cached response is re-broadcast
+  private boolean requestCachedStatus(DeviceStatusCache.Query query) {
+    if (!(neoDeviceConnected) || !(neoCliReady)) {
+      return false;
+    }
+    String cached = statusCache.getCached(query);
+    if (cached != null) {
+      broadcast(StatusUpdateType.CLIMESSAGE, cached);
+      return true;
+    }
+    return statusCache.request(query, null);
   }
 
   /**
@@ -253,33 +488,204 @@ public class NeosensoryBlessed {
    * @return true if connected to a valid device that is ready to accept CLI commands. TODO: handle
    *     returning JSON response from the device
    */
+  @Override
   public boolean vibrateMotors(int[] motorValues) {
-    // unfortunately, bytes are signed in java and our input values are on [0, 255]
-    byte[] motorValuesBytes = new byte[motorValues.length];
-    for (int i = 0; i < motorValues.length; i++) {
-      motorValuesBytes[i] = (byte) (motorValues[i]);
+    if ((neoDeviceConnected) && (neoCliReady)) {
+      return outboundPipeline.vibrateMotors(motorValues);
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Play one frame of a compiled pattern. The frame's command is encoded once per pattern (and
+   * intensity map) and reused, so playing a pattern frame by frame does no math or allocation.
+   *
+   * @param pattern a pattern compiled with HapticPattern.compile()
+   * @param frameIndex index of the frame to play, on [0 pattern.getFrameCount())
+   * @return true if connected to a valid device that is ready to accept CLI commands.
+   */
+  public boolean vibrateMotors(CompiledPattern pattern, int frameIndex) {
+    if ((neoDeviceConnected) && (neoCliReady)) {
+      return outboundPipeline.vibrateMotors(pattern, frameIndex);
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Start streaming frames to the device at a fixed rate the link can sustain, from a resampler
+   * that producers push frames into at whatever rate they run (e.g. 200 Hz sensor callbacks or 60
+   * Hz animations). Faster streams are decimated keeping peaks, slower ones are interpolated in
+   * perceived intensity. Any stream already running is replaced.
+   *
+   * @param framesPerSecond rate at which frames are sent to the device
+   * @return the resampler to push frames into, using its vibrateMotors(int[]) method
+   */
+  public synchronized FrameResampler startResampledStream(float framesPerSecond) {
+    FrameResampler resampler = new FrameResampler();
+    startStream(resampler, framesPerSecond);
+    return resampler;
+  }
+
+  /** Stop a stream started with startResampledStream. The motors keep the last frame sent. */
+  public synchronized void stopResampledStream() {
+    stopStream();
+  }
+
+  /**
+   * Start streaming a live synthesizer to the device at a fixed rate. Effects are played by
+   * allocating voices on the returned synth and triggering them; the stream costs no allocation per
+   * frame however many voices are sounding. Any stream already running is replaced.
+   *
+   * @param framesPerSecond rate at which frames are rendered and sent to the device
+   * @return the synth driving the stream
+   */
+  public synchronized HapticSynth startSynthStream(float framesPerSecond) {
+    HapticSynth synth = new HapticSynth(framesPerSecond);
+    startStream(synth, framesPerSecond);
+    return synth;
+  }
+
+  /** Stop a stream started with startSynthStream. The motors keep the last frame sent. */
+  public synchronized void stopSynthStream() {
+    stopStream();
+  }
+
+  /**
+   * Start streaming frames from any source to the device at a fixed rate, on the library's own
+   * scheduler thread. Any stream already running is replaced.
+   *
+   * @param source the source to pull a frame from each tick
+   * @param framesPerSecond rate at which frames are rendered and sent to the device
+   */
+  public synchronized void startStream(HapticSource source, float framesPerSecond) {
+    if (streamScheduler == null) {
+      streamScheduler = new FrameScheduler(this);
+      streamScheduler.setBackpressure(commandWriter);
     }
-    byte[] b64motorValues = Base64.getEncoder().encode(motorValuesBytes);
-    String fireCommand =
-        "motors vibrate " + new String(b64motorValues, StandardCharsets.UTF_8) + "\n";
-    return sendCommand(fireCommand);
+    streamScheduler.setSource(source);
+    streamScheduler.start(framesPerSecond);
   }
 
-  /** If connected to a Neosensory device, disconnect it */
+  /** Stop the stream currently running, if any. The motors keep the last frame sent. */
+  public synchronized void stopStream() {
+    if (streamScheduler != null) {
+      streamScheduler.stop();
+      streamScheduler.setSource(null);
+    }
+  }
+
+  /**
+   * Check whether a stream started with one of the stream start methods is running.
+   *
+   * @return true if frames are being streamed
+   */
+  public synchronized boolean isStreaming() {
+    return streamScheduler != null && streamScheduler.isRunning();
+  }
+
+  /**
+   * Budget battery use for the rest of a streaming session. Frames sent with vibrateMotors(int[])
+   * are then paced and, if needed, softened so that the session can last the given time; the
+   * battery level is polled periodically to keep the estimate honest. Calling this again replaces
+   * the target.
+   *
+   * @param targetSessionMs how long from now the session should last, in milliseconds
+   * @return the governor, e.g. to observe its level or adjust the battery reserve
+   */
+  public synchronized PowerGovernor enablePowerGovernor(long targetSessionMs) {
+    PowerGovernor governor = powerGovernor;
+    if (governor == null) {
+      governor = new PowerGovernor(outboundPipeline.getEncoder(), statusCache);
+      powerGovernor = governor;
+      // At the pipeline, so pattern playback and subscribers are governed as well
+      outboundPipeline.setFrameGovernor(governor);
+    }
+    governor.setTargetSessionLength(targetSessionMs);
+    return governor;
+  }
+
+  /** Stop governing power use; frames are sent unchanged again. */
+  public synchronized void disablePowerGovernor() {
+    outboundPipeline.setFrameGovernor(null);
+    powerGovernor = null;
+  }
+
+  /**
+   * Apply a user's perceptual calibration to every frame sent with vibrateMotors. The profile is
+   * compiled once here; it can be changed at any time, including while a stream is running, and
+   * takes effect from the next frame.
+   *
+   * @param profile the calibration to apply, or null to send frames unmodified
+   */
+  public void setCalibrationProfile(CalibrationProfile profile) {
+    setIntensityMap(profile == null ? IntensityMap.identity() : profile.compile());
+  }
+
+  /**
+   * Apply an already compiled intensity map to every frame sent with vibrateMotors.
+   *
+   * @param map the map to apply, or null to send frames unmodified
+   */
+  public void setIntensityMap(IntensityMap map) {
+    outboundPipeline.setIntensityMap(map);
+  }
+
+  /**
+   * Get the intensity map currently applied to outgoing frames.
+   *
+   * @return the active map. IntensityMap.identity() if no calibration is applied.
+   */
+  public IntensityMap getIntensityMap() {
+    return outboundPipeline.getIntensityMap();
+  }
+
+  /**
+   * If connected to a Neosensory device, disconnect it, and stop any search for a device still
+   * under way. An intentional disconnect is not undone by auto reconnect; call
+   * attemptNeoReconnect() to connect again.
+   */
   public void disconnectNeoDevice() {
+    disconnectRequested = true;
+    handler.post(stopSearch);
     if ((neoDeviceConnected) && (neoPeripheral != null)) {
       central.cancelConnection(neoPeripheral);
     }
   }
 
+  /**
+   * Check whether the link was disconnected with disconnectNeoDevice() and not reconnected since.
+   *
+   * @return True if disconnected on purpose. False otherwise.
+   */
+  public boolean getNeoDisconnectRequested() {
+    return disconnectRequested;
+  }
+
   /** Attempt to reconnect to a Neosensory device if disconnected */
   public void attemptNeoReconnect() {
-    if ((!neoDeviceConnected) && (neoPeripheral != null)) {
+    boolean searchStopped = disconnectRequested && neoPeripheral == null;
+    disconnectRequested = false;
+    if (searchStopped) {
+      // Disconnected before any device was found: search again
+      handler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (!disconnectRequested) {
+                startScan();
+              }
+            }
+          });
+    } else if ((!neoDeviceConnected) && (neoPeripheral != null)) {
       handler.postDelayed(
           new Runnable() {
             @Override
             public void run() {
-              central.autoConnectPeripheral(neoPeripheral, peripheralCallback);
+              if (!disconnectRequested) {
+                central.autoConnectPeripheral(neoPeripheral, peripheralCallback);
+              }
             }
           },
           5000);
@@ -302,6 +708,7 @@ public class NeosensoryBlessed {
             neoWriteCharacteristic =
                 peripheral.getCharacteristic(UART_OVER_BLE_SERVICE_UUID, UART_RX_WRITE_UUID);
             neoCliReady = true;
+            trace.record(NeoTrace.EventType.CLI_READY, 0, GATT_SUCCESS);
             broadcast(StatusUpdateType.CLIREADINESS,neoCliReady);
             Log.i(TAG, "SUCCESS: CLI ready to accept commands");
 
@@ -336,25 +743,21 @@ public class NeosensoryBlessed {
           }
         }
 
-        // Log pass/fail upon attempting a a write characteristic
+        // Trace pass/fail upon attempting a write characteristic. This runs for every frame
+        // streamed, so nothing is formatted here; see getTrace().
         @Override
         public void onCharacteristicWrite(
             BluetoothPeripheral peripheral,
             byte[] value,
             BluetoothGattCharacteristic characteristic,
             int status) {
-          if (status == GATT_SUCCESS) {
-            Log.i(
-                TAG,
-                String.format(
-                    "SUCCESS: Writing <%s> to <%s>",
-                    bytes2String(value), characteristic.getUuid().toString()));
-          } else {
-            Log.i(
-                TAG,
-                String.format(
-                    "ERROR: Failed writing <%s> to <%s>",
-                    bytes2String(value), characteristic.getUuid().toString()));
+          // Read before completing, which lets the writer start the next write
+          long ackLatency = System.nanoTime() - commandWriter.getLastWriteStartNanos();
+          boolean current = commandWriter.onWriteComplete(status == GATT_SUCCESS);
+          trace.record(NeoTrace.EventType.WRITE, value.length, status);
+          if (current) {
+            // A late ack for a timed out write would be timed against the write after it
+            sessionStats.recordWrite(ackLatency, status == GATT_SUCCESS);
           }
         }
 
@@ -366,6 +769,7 @@ public class NeosensoryBlessed {
             byte[] value,
             BluetoothGattCharacteristic characteristic,
             int status) {
+          trace.record(NeoTrace.EventType.NOTIFY, value.length, status);
           if (status != GATT_SUCCESS) return;
           UUID characteristicUUID = characteristic.getUuid();
           BluetoothBytesParser parser = new BluetoothBytesParser(value);
@@ -374,7 +778,11 @@ public class NeosensoryBlessed {
             Log.i(TAG, String.format("Received manufacturer: %s", manufacturer));
           } else if (characteristicUUID.equals(UART_TX_NOTIFY_UUID)) {
             neoCliResponse = parser.getStringValue(0);
-            Log.i(TAG, String.format("Received notification: %s", neoCliResponse));
+            statusCache.onCliMessage(neoCliResponse);
+            SessionRecorder recorder = outboundPipeline.getSessionRecorder();
+            if (recorder != null) {
+              recorder.recordInbound(Arrays.copyOf(value, value.length));
+            }
             broadcast(StatusUpdateType.CLIMESSAGE, neoCliResponse);
           } else if (characteristicUUID.equals(UART_RX_WRITE_UUID)) {
             String rx_write_val = parser.getStringValue(0);
@@ -389,6 +797,7 @@ public class NeosensoryBlessed {
       case CLIMESSAGE:
         intent.putExtra("com.neosensory.neosensoryblessed.CliMessage", message);
         context.sendBroadcast(intent);
+        eventPublisher.publish(NeoEvent.cliMessage(message));
         break;
       default:
         break;
@@ -401,10 +810,12 @@ public class NeosensoryBlessed {
       case CONNECTION:
         intent.putExtra("com.neosensory.neosensoryblessed.ConnectedState", state);
         context.sendBroadcast(intent);
+        eventPublisher.publish(NeoEvent.stateChange(NeoEvent.Type.CONNECTION, state));
         break;
       case CLIREADINESS:
         intent.putExtra("com.neosensory.neosensoryblessed.CliReadiness", state);
         context.sendBroadcast(intent);
+        eventPublisher.publish(NeoEvent.stateChange(NeoEvent.Type.CLI_READINESS, state));
         break;
       default:
         break;
@@ -418,8 +829,18 @@ public class NeosensoryBlessed {
         // Activity)
         @Override
         public void onConnectedPeripheral(BluetoothPeripheral peripheral) {
+          if (disconnectRequested) {
+            // Connecting was started before disconnectNeoDevice(); nobody owns this link
+            Log.i(TAG, String.format("dropping unwanted connection to '%s'", peripheral.getName()));
+            central.cancelConnection(peripheral);
+            return;
+          }
           Log.i(TAG, String.format("connected to '%s'", peripheral.getName()));
           neoDeviceConnected = true;
+          trace.record(NeoTrace.EventType.CONNECT, 0, GATT_SUCCESS);
+          sessionStats.reset();
+          fallbackCandidates.clear();
+          discoveredPeripherals.clear();
           broadcast(StatusUpdateType.CONNECTION,neoDeviceConnected);
         }
 
@@ -427,12 +848,18 @@ public class NeosensoryBlessed {
         @Override
         public void onConnectionFailed(BluetoothPeripheral peripheral, final int status) {
           neoDeviceConnected = false;
+          trace.record(NeoTrace.EventType.CONNECT, 0, status);
+          commandWriter.clear();
+          statusCache.invalidate();
           broadcast(StatusUpdateType.CONNECTION,neoDeviceConnected);
           neoCliReady = false;
           broadcast(StatusUpdateType.CLIREADINESS,neoCliReady);
           Log.e(
               TAG,
               String.format("connection '%s' failed with status %d", peripheral.getName(), status));
+          linkQualityStore.recordConnectionFailure(peripheral.getAddress());
+          // After a ranked discovery, fall back to the next best device
+          connectNextCandidate();
         }
 
         // Upon a disconnect, log the output and attempt to reconnect every 5 seconds.
@@ -440,19 +867,27 @@ public class NeosensoryBlessed {
         public void onDisconnectedPeripheral(
             final BluetoothPeripheral peripheral, final int status) {
           neoDeviceConnected = false;
+          trace.record(NeoTrace.EventType.DISCONNECT, 0, status);
+          linkQualityStore.recordSession(
+              peripheral.getAddress(), sessionStats, !disconnectRequested);
+          commandWriter.clear();
+          statusCache.invalidate();
           broadcast(StatusUpdateType.CONNECTION,neoDeviceConnected);
           neoCliReady = false;
           broadcast(StatusUpdateType.CLIREADINESS,neoCliReady);
 
           Log.i(
               TAG, String.format("disconnected '%s' with status %d", peripheral.getName(), status));
-          if (autoReconnectEnabled) {
+          if (autoReconnectEnabled && !disconnectRequested) {
             if (!neoDeviceConnected) {
               handler.postDelayed(
                   new Runnable() {
                     @Override
                     public void run() {
-                      central.autoConnectPeripheral(peripheral, peripheralCallback);
+                      // Unless the link was disconnected on purpose in the meantime
+                      if (!disconnectRequested) {
+                        central.autoConnectPeripheral(peripheral, peripheralCallback);
+                      }
                     }
                   },
                   5000);
@@ -460,15 +895,80 @@ public class NeosensoryBlessed {
           }
         }
 
-        // Upon discovering target peripheral, stop scan and initiate connection.
+        // Upon discovering target peripheral, stop scan and initiate connection. During a ranked
+        // discovery, only note the device; the choice is made when the scan window closes.
         @Override
         public void onDiscoveredPeripheral(BluetoothPeripheral peripheral, ScanResult scanResult) {
+          if (disconnectRequested) {
+            // A result that raced the scan being stopped
+            return;
+          }
+          if (discoverySelector != null) {
+            discoverySelector.offer(
+                peripheral.getAddress(),
+                peripheral.getName(),
+                scanResult.getRssi(),
+                System.nanoTime());
+            discoveredPeripherals.put(peripheral.getAddress(), peripheral);
+            return;
+          }
           Log.i(TAG, String.format("Found peripheral '%s'", peripheral.getName()));
           central.stopScan();
           central.connectPeripheral(peripheral, peripheralCallback);
         }
       };
 
+  // End of a ranked discovery scan window: pick the best device seen, or keep scanning if none
+  private void selectDiscoveredPeripheral() {
+    if (discoverySelector == null || disconnectRequested) {
+      return;
+    }
+    if (discoverySelector.isEmpty()) {
+      handler.postDelayed(finishDiscovery, scanWindowMs);
+      return;
+    }
+    central.stopScan();
+    DiscoveryReport report =
+        discoverySelector.select(maxCandidates, linkQualityStore, System.nanoTime());
+    discoverySelector = null;
+    Log.i(TAG, report.getRationale());
+    fallbackCandidates.clear();
+    fallbackCandidates.addAll(report.getCandidates());
+    if (discoveryListener != null) {
+      discoveryListener.onDiscoveryComplete(report);
+    }
+    connectNextCandidate();
+  }
+
+  // Connect to the best remaining candidate of the last ranked discovery, if any
+  private void connectNextCandidate() {
+    if (disconnectRequested) {
+      fallbackCandidates.clear();
+    }
+    while (!fallbackCandidates.isEmpty()) {
+      BluetoothPeripheral peripheral =
+          discoveredPeripherals.get(fallbackCandidates.remove(0).getAddress());
+      if (peripheral != null) {
+        central.connectPeripheral(peripheral, peripheralCallback);
+        return;
+      }
+    }
+    discoveredPeripherals.clear();
+  }
+
+  // Scan for the device(s) asked for; with a scan window, collect candidates to rank first
+  private void startScan() {
+    if (scanAddress != null) {
+      central.scanForPeripheralsWithAddresses(new String[] {scanAddress});
+      return;
+    }
+    if (scanWindowMs > 0) {
+      discoverySelector = new DiscoverySelector(System.nanoTime(), scanWindowMs);
+      handler.postDelayed(finishDiscovery, scanWindowMs);
+    }
+    central.scanForPeripheralsWithNames(scanNames);
+  }
+
   /**
    * Request the Activity enable Bluetooth
    *
@@ -508,6 +1008,44 @@ public class NeosensoryBlessed {
     return instance;
   }
 
+  /**
+   * Create and return instance using constructor used to connect to the best of several devices
+   * matching by name. Rather than connecting to the first match, the scan collects every match for
+   * a window, ranks them by signal strength and by link quality in previous sessions, and connects
+   * to the best one, trying the next best if that connection fails. NOTE: There should only exist
+   * one instance of NeosensoryBlessed at a time. If you try to create a new instance, the
+   * parameters will be ignored and you'll get the previously created instance.
+   *
+   * @param context the Android Context
+   * @param neoNames a list of Strings for finding potential devices to connect to by name
+   * @param autoReconnect boolean for if the Bluetooth handler should automatically attempt to
+   *     reconnect to the device if a connection is lost.
+   * @param scanWindowMs how long to collect candidates before choosing, e.g. 3000. If nothing is
+   *     found in a window the scan goes on for another.
+   * @param maxCandidates how many of the best devices to try, in order, before giving up
+   * @param listener receives the ranking, rationale and timing, or null
+   * @return the instance of the NeosensoryBlessed object
+   */
+  public static synchronized NeosensoryBlessed getInstance(
+      Context context,
+      String[] neoNames,
+      boolean autoReconnect,
+      long scanWindowMs,
+      int maxCandidates,
+      DiscoveryReport.Listener listener) {
+    if (instance == null) {
+      instance =
+          new NeosensoryBlessed(
+              context.getApplicationContext(),
+              neoNames,
+              autoReconnect,
+              scanWindowMs,
+              maxCandidates,
+              listener);
+    }
+    return instance;
+  }
+
   /**
    * Create and return instance using constructor used to connect to a device with a specific
    * address e.g. "EB:CA:85:38:19:1D" context the Android Context. NOTE: There should only exist one
@@ -538,11 +1076,20 @@ public class NeosensoryBlessed {
   private NeosensoryBlessed(Context context, String neoAddress, boolean autoReconnect) {
     this.context = context;
     autoReconnectEnabled = autoReconnect;
+    commandWriter = new CommandWriter(uartTransport, "NeoCommandWriter");
+    outboundPipeline = new OutboundPipeline(commandWriter);
+    statusCache = new DeviceStatusCache(outboundPipeline);
+    linkQualityStore = new LinkQualityStore(context);
+    scanWindowMs = 0;
+    maxCandidates = 1;
+    discoveryListener = null;
+    scanAddress = neoAddress;
+    scanNames = null;
     // Create BluetoothCentral
     central = new BluetoothCentral(context, bluetoothCentralCallback, new Handler());
     // Scan for peripherals with a certain service UUIDs
     central.startPairingPopupHack();
-    central.scanForPeripheralsWithAddresses(new String[] {neoAddress});
+    startScan();
   }
 
   /**
@@ -557,12 +1104,43 @@ public class NeosensoryBlessed {
    *     reconnect to the device if a connection is lost.
    */
   private NeosensoryBlessed(Context context, String[] neoNames, boolean autoReconnect) {
+    this(context, neoNames, autoReconnect, 0, 1, null);
+  }
+
+  /**
+   * Constructor used to connect to the best ranked device matching by name
+   *
+   * @param context the Android Context
+   * @param neoNames a list of Strings for finding potential devices to connect to by name
+   * @param autoReconnect boolean for if the Bluetooth handler should automatically attempt to
+   *     reconnect to the device if a connection is lost.
+   * @param scanWindowMs how long to collect candidates before choosing, or 0 to connect to the
+   *     first match
+   * @param maxCandidates how many of the best devices to try, in order
+   * @param listener receives the discovery report, or null
+   */
+  private NeosensoryBlessed(
+      Context context,
+      String[] neoNames,
+      boolean autoReconnect,
+      long scanWindowMs,
+      int maxCandidates,
+      DiscoveryReport.Listener listener) {
     this.context = context;
     autoReconnectEnabled = autoReconnect;
+    commandWriter = new CommandWriter(uartTransport, "NeoCommandWriter");
+    outboundPipeline = new OutboundPipeline(commandWriter);
+    statusCache = new DeviceStatusCache(outboundPipeline);
+    linkQualityStore = new LinkQualityStore(context);
+    this.scanWindowMs = scanWindowMs;
+    this.maxCandidates = maxCandidates;
+    discoveryListener = listener;
+    scanAddress = null;
+    scanNames = neoNames;
     // Create BluetoothCentral
     central = new BluetoothCentral(context, bluetoothCentralCallback, new Handler());
     // Scan for peripherals with a certain service UUIDs
     central.startPairingPopupHack();
-    central.scanForPeripheralsWithNames(neoNames);
+    startScan();
   }
 }
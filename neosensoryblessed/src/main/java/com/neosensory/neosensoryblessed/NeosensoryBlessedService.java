@@ -0,0 +1,224 @@
+package com.neosensory.neosensoryblessed;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Binder;
+import android.os.IBinder;
+
+/**
+ * Hosts the connection to a Neosensory device, its outbound queue and its frame scheduler in a
+ * service, independent of any Activity. Activities bind to it with {@link #bind(Context,
+ * ServiceConnection)} when they are created and unbind when they are destroyed; attaching and
+ * detaching is just a bind, so a configuration change or a trip to the background leaves the
+ * connection and any stream running untouched. Reconnection only happens on real link loss, when
+ * auto reconnect is enabled.
+ *
+ * <p>Once a connection is started the service runs in the foreground with an ongoing notification,
+ * so Android keeps it alive with no client bound. It stays up until {@link #shutdown()} is called.
+ * Apps can customise the notification by subclassing and overriding {@link #buildNotification()},
+ * declaring the subclass in their manifest instead and binding with {@link #bind(Context, Class,
+ * ServiceConnection)}.
+ *
+ * <p>State changes are still broadcast to "BlessedBroadcast" receivers and published by {@link
+ * NeosensoryBlessed#getEventPublisher()}; a client that attaches later should read the current
+ * state with getNeoDeviceConnected(), getNeoCliReady() and isStreaming().
+ */
+public class NeosensoryBlessedService extends Service {
+
+  /** Binder handed to clients in the same process. */
+  public class LocalBinder extends Binder {
+    public NeosensoryBlessedService getService() {
+      return NeosensoryBlessedService.this;
+    }
+  }
+
+  private static final String CHANNEL_ID = "neosensoryblessed_connection";
+  private static final int NOTIFICATION_ID = 0x4e454f;
+
+  private final IBinder binder = new LocalBinder();
+  // Guarded by this
+  private NeosensoryBlessed blessedNeo = null;
+  private boolean hosting = false;
+
+  /**
+   * Bind to the service, creating it if needed. Unbind with Context.unbindService(connection).
+   *
+   * @param context the Android Context, e.g. the binding Activity
+   * @param connection receives the {@link LocalBinder} once bound
+   * @return true if the service was found and the binding is in progress
+   */
+  public static boolean bind(Context context, ServiceConnection connection) {
+    return bind(context, NeosensoryBlessedService.class, connection);
+  }
+
+  /**
+   * Bind to a subclass of the service declared in the app's manifest, creating it if needed.
+   *
+   * @param context the Android Context, e.g. the binding Activity
+   * @param serviceClass the service class declared in the manifest
+   * @param connection receives the {@link LocalBinder} once bound
+   * @return true if the service was found and the binding is in progress
+   */
+  public static boolean bind(
+      Context context,
+      Class<? extends NeosensoryBlessedService> serviceClass,
+      ServiceConnection connection) {
+    return context.bindService(
+        new Intent(context, serviceClass), connection, Context.BIND_AUTO_CREATE);
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return binder;
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    // Started by connect() only to outlive its clients; there is nothing to resume after a kill
+    return START_NOT_STICKY;
+  }
+
+  /**
+   * Connect to the first discovered device whose name contains one of the given names, unless the
+   * service already hosts a connection, in which case that one is kept and the parameters are
+   * ignored.
+   *
+   * @param neoNames a list of Strings for finding a potential device to connect to by name
+   * @param autoReconnect boolean for if the Bluetooth handler should automatically attempt to
+   *     reconnect to the device if a connection is lost.
+   * @return the hosted NeosensoryBlessed instance
+   */
+  public synchronized NeosensoryBlessed connect(String[] neoNames, boolean autoReconnect) {
+    if (blessedNeo == null) {
+      blessedNeo = NeosensoryBlessed.getInstance(getApplicationContext(), neoNames, autoReconnect);
+    }
+    if (blessedNeo.getNeoDisconnectRequested()) {
+      // Undo an earlier shutdown. Anything else not yet connected is already being connected.
+      blessedNeo.attemptNeoReconnect();
+    }
+    startHosting();
+    return blessedNeo;
+  }
+
+  /**
+   * Connect to the device with a specific address, unless the service already hosts a connection,
+   * in which case that one is kept and the parameters are ignored.
+   *
+   * @param neoAddress string in the format of a desired address e.g. "EB:CA:85:38:19:1D"
+   * @param autoReconnect boolean for if the Bluetooth handler should automatically attempt to
+   *     reconnect to the device if a connection is lost.
+   * @return the hosted NeosensoryBlessed instance
+   */
+  public synchronized NeosensoryBlessed connect(String neoAddress, boolean autoReconnect) {
+    if (blessedNeo == null) {
+      blessedNeo =
+          NeosensoryBlessed.getInstance(getApplicationContext(), neoAddress, autoReconnect);
+    }
+    if (blessedNeo.getNeoDisconnectRequested()) {
+      // Undo an earlier shutdown. Anything else not yet connected is already being connected.
+      blessedNeo.attemptNeoReconnect();
+    }
+    startHosting();
+    return blessedNeo;
+  }
+
+  /**
+   * Get the hosted connection, e.g. when reattaching after the Activity was recreated.
+   *
+   * @return the NeosensoryBlessed instance, or null if connect() has not been called
+   */
+  public synchronized NeosensoryBlessed getNeosensoryBlessed() {
+    return blessedNeo;
+  }
+
+  /**
+   * Start streaming a source to the device on the hosted scheduler. The stream keeps running while
+   * no client is bound. Any stream already running is replaced.
+   *
+   * @param source the source to pull a frame from each tick. It should not hold on to an Activity.
+   * @param framesPerSecond rate at which frames are rendered and sent to the device
+   */
+  public synchronized void startStream(HapticSource source, float framesPerSecond) {
+    if (blessedNeo == null) {
+      throw new IllegalStateException("connect() must be called before streaming");
+    }
+    blessedNeo.startStream(source, framesPerSecond);
+  }
+
+  /** Stop the hosted stream, if any. The motors keep the last frame sent. */
+  public synchronized void stopStream() {
+    if (blessedNeo != null) {
+      blessedNeo.stopStream();
+    }
+  }
+
+  /**
+   * Check whether the hosted stream is running.
+   *
+   * @return true if frames are being streamed
+   */
+  public synchronized boolean isStreaming() {
+    return blessedNeo != null && blessedNeo.isStreaming();
+  }
+
+  /**
+   * End hosting: stop any stream, disconnect and let the service be destroyed once no client is
+   * bound. The disconnect is intentional, so neither auto reconnect nor a scan still looking for
+   * the device brings the link back without the service. The NeosensoryBlessed instance itself
+   * lives on for the process, so a later connect() returns it again and reconnects it.
+   */
+  public synchronized void shutdown() {
+    if (blessedNeo != null) {
+      blessedNeo.stopStream();
+      blessedNeo.disconnectNeoDevice();
+      blessedNeo = null;
+    }
+    if (hosting) {
+      hosting = false;
+      stopForeground(true);
+      stopSelf();
+    }
+  }
+
+  @Override
+  public void onDestroy() {
+    shutdown();
+    super.onDestroy();
+  }
+
+  /**
+   * Build the ongoing notification shown while the service hosts a connection. The channel it
+   * posts to is created before this is called.
+   *
+   * @return the notification
+   */
+  protected Notification buildNotification() {
+    return new Notification.Builder(this, CHANNEL_ID)
+        .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+        .setContentTitle("Neosensory device")
+        .setContentText("Connected and streaming in the background")
+        .setOngoing(true)
+        .build();
+  }
+
+  // Start ourselves so the service outlives unbinding, and go foreground so it isn't killed. The
+  // startForeground call below meets the obligation startForegroundService places on us.
+  private void startHosting() {
+    if (hosting) {
+      return;
+    }
+    hosting = true;
+    startForegroundService(new Intent(this, getClass()));
+    NotificationManager manager =
+        (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    manager.createNotificationChannel(
+        new NotificationChannel(
+            CHANNEL_ID, "Neosensory connection", NotificationManager.IMPORTANCE_LOW));
+    startForeground(NOTIFICATION_ID, buildNotification());
+  }
+}
@@ -0,0 +1,143 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * The device-independent part of the outbound path: encodes frames with the active {@link
+ * IntensityMap}, records traffic while a {@link SessionRecorder} is attached and submits payloads
+ * to a {@link CommandWriter}. {@link NeosensoryBlessed} adds connection checks in front of this;
+ * benchmarks and simulations drive it directly so they exercise the same code as the SDK.
+ */
+public class OutboundPipeline implements MotorFrameSink {
+
+  private final CommandWriter commandWriter;
+  // Applied to every frame on the way out. Replaced wholesale, so it can be swapped mid-stream.
+  private volatile IntensityMap intensityMap = IntensityMap.identity();
+  // Non-null only while a session is being recorded
+  private volatile SessionRecorder sessionRecorder = null;
+  // Non-null while frames pass through a governor (e.g. a PowerGovernor) before being encoded
+  private volatile MotorFrameSink frameGovernor = null;
+  private final MotorFrameSink encoder =
+      new MotorFrameSink() {
+        @Override
+        public boolean vibrateMotors(int[] motorValues) {
+          return submitCommand(MotorFrameEncoder.encodeVibrate(motorValues, intensityMap));
+        }
+      };
+
+  /**
+   * Create a pipeline feeding a writer.
+   *
+   * @param commandWriter the writer that owns the link
+   */
+  public OutboundPipeline(CommandWriter commandWriter) {
+    this.commandWriter = commandWriter;
+  }
+
+  /**
+   * Submit an already encoded command. Safe to call from any thread.
+   *
+   * @param payload command bytes. Ownership passes to the pipeline; do not modify it later.
+   * @return true if the command was queued
+   */
+  public boolean submitCommand(byte[] payload) {
+    SessionRecorder recorder = sessionRecorder;
+    if (recorder != null) {
+      recorder.recordOutbound(payload);
+    }
+    return commandWriter.submit(payload);
+  }
+
+  /**
+   * Submit an already encoded command on the writer's low-priority lane, e.g. a status query that
+   * should not delay frames. Safe to call from any thread.
+   *
+   * @param payload command bytes. Ownership passes to the pipeline; do not modify it later.
+   * @return true if the command was queued
+   */
+  public boolean submitLowPriorityCommand(byte[] payload) {
+    SessionRecorder recorder = sessionRecorder;
+    if (recorder != null) {
+      recorder.recordOutbound(payload);
+    }
+    return commandWriter.submitLowPriority(payload);
+  }
+
+  /**
+   * Encode a frame with the active intensity map and submit it, via the frame governor if one is
+   * installed. Safe to call from any thread.
+   *
+   * @param motorValues array of length # of motors with values on [0 255]
+   * @return true if the frame was queued (or taken by the governor)
+   */
+  @Override
+  public boolean vibrateMotors(int[] motorValues) {
+    MotorFrameSink governor = frameGovernor;
+    if (governor != null) {
+      return governor.vibrateMotors(motorValues);
+    }
+    return encoder.vibrateMotors(motorValues);
+  }
+
+  /**
+   * Submit one frame of a compiled pattern using its pre-encoded command. Safe to call from any
+   * thread. While a frame governor is installed the frame is passed to it as motor values instead,
+   * since the governor may change them.
+   *
+   * @param pattern the compiled pattern
+   * @param frameIndex index of the frame on [0 frameCount)
+   * @return true if the frame was queued (or taken by the governor)
+   */
+  public boolean vibrateMotors(CompiledPattern pattern, int frameIndex) {
+    MotorFrameSink governor = frameGovernor;
+    if (governor != null) {
+      int[] frame = new int[pattern.getNumMotors()];
+      pattern.getFrame(frameIndex, frame);
+      return governor.vibrateMotors(frame);
+    }
+    return submitCommand(pattern.getEncodedFrames(intensityMap)[frameIndex]);
+  }
+
+  /**
+   * Route every frame submitted to this pipeline, by any path, through a governor. The governor
+   * forwards the frames it lets through to {@link #getEncoder()}.
+   *
+   * @param governor the governor, or null to send frames straight to the encoder again
+   */
+  public void setFrameGovernor(MotorFrameSink governor) {
+    frameGovernor = governor;
+  }
+
+  /**
+   * Get the sink that encodes and submits frames without passing them to the frame governor, for
+   * use as the governor's downstream.
+   *
+   * @return the encoding sink
+   */
+  public MotorFrameSink getEncoder() {
+    return encoder;
+  }
+
+  public void setIntensityMap(IntensityMap map) {
+    intensityMap = map == null ? IntensityMap.identity() : map;
+  }
+
+  public IntensityMap getIntensityMap() {
+    return intensityMap;
+  }
+
+  /**
+   * Attach or detach a recorder. Outbound commands are recorded from the next submission.
+   *
+   * @param recorder the recorder to feed, or null to stop feeding one
+   */
+  public void setSessionRecorder(SessionRecorder recorder) {
+    sessionRecorder = recorder;
+  }
+
+  public SessionRecorder getSessionRecorder() {
+    return sessionRecorder;
+  }
+
+  public CommandWriter getCommandWriter() {
+    return commandWriter;
+  }
+}
@@ -0,0 +1,93 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * The pan law of the haptic illusion in {@link NeoBuzzPsychophysics#GetIllusionActivations},
+ * generalised to a {@link MotorLayout} and precomputed into tables: for each quantised position,
+ * the pair of motors it falls between and the gain of each. Shared by the renderers that place
+ * vibrations between motors.
+ */
+final class PanLaw {
+
+  // Resolution of the tables, in steps across the [0 1] position range
+  static final int POSITION_STEPS = 1024;
+
+  final int[] lowerMotor = new int[POSITION_STEPS + 1];
+  final int[] upperMotor = new int[POSITION_STEPS + 1];
+  final float[] lowerGain = new float[POSITION_STEPS + 1];
+  final float[] upperGain = new float[POSITION_STEPS + 1];
+
+  private final MotorLayout layout;
+
+  PanLaw(MotorLayout layout) {
+    this.layout = layout;
+    for (int step = 0; step <= POSITION_STEPS; step++) {
+      compute(step, (float) step / POSITION_STEPS);
+    }
+  }
+
+  /**
+   * Find the table entry for a position. Positions off the ends of a strip clamp to the end motors;
+   * on a ring they wrap around.
+   *
+   * @param position float location, nominally on [0 1]
+   * @return index into the tables
+   */
+  int quantise(float position) {
+    if (layout.isCircular()) {
+      position = wrap(position);
+    } else if (position <= 0) {
+      return 0;
+    } else if (position >= 1) {
+      return POSITION_STEPS;
+    }
+    return Math.round(position * POSITION_STEPS);
+  }
+
+  static float wrap(float position) {
+    float wrapped = position - (float) Math.floor(position);
+    return wrapped >= 1 ? 0 : wrapped;
+  }
+
+  // Fill one entry of the tables using the sqrt law from GetIllusionActivations
+  private void compute(int step, float position) {
+    int numMotors = layout.getNumMotors();
+    int last = numMotors - 1;
+    int lower;
+    int upper;
+    float span;
+    float offset;
+    if (position < layout.getPosition(0) || position >= layout.getPosition(last)) {
+      if (!layout.isCircular()) {
+        // Beyond the end motors of a strip: render on the nearest end motor alone
+        int motor = position < layout.getPosition(0) ? 0 : last;
+        set(step, motor, motor, 1, 0);
+        return;
+      }
+      // Between the last and first motors of a ring
+      lower = last;
+      upper = 0;
+      span = layout.getPosition(0) + 1 - layout.getPosition(last);
+      offset = position - layout.getPosition(last);
+      if (offset < 0) {
+        offset += 1;
+      }
+    } else {
+      lower = 0;
+      while (layout.getPosition(lower + 1) <= position) {
+        lower++;
+      }
+      upper = lower + 1;
+      span = layout.getPosition(upper) - layout.getPosition(lower);
+      offset = position - layout.getPosition(lower);
+    }
+    float fraction = offset / span;
+    set(step, lower, upper, (float) Math.sqrt(1 - fraction), (float) Math.sqrt(fraction));
+  }
+
+  private void set(int step, int lower, int upper, float lowerGainValue, float upperGainValue) {
+    lowerMotor[step] = lower;
+    upperMotor[step] = upper;
+    lowerGain[step] = lowerGainValue;
+    upperGain[step] = upperGainValue;
+  }
+}
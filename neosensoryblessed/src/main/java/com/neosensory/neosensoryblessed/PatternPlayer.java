@@ -0,0 +1,67 @@
+package com.neosensory.neosensoryblessed;
+
+/**
+ * Plays a {@link CompiledPattern} as a {@link HapticSource}, one frame per tick, so a pattern can
+ * be driven by a {@link FrameScheduler} or layered in a {@link HapticMixer}. Each tick copies the
+ * next frame out of the compiled array; there is no per-frame math or allocation.
+ */
+public class PatternPlayer implements HapticSource {
+
+  private volatile CompiledPattern pattern;
+  private volatile boolean looping;
+  // Next frame to play. Reset from other threads by play(), read and advanced by render().
+  private volatile int position;
+
+  /**
+   * Create a player with nothing to play.
+   */
+  public PatternPlayer() {}
+
+  /**
+   * Start playing a pattern from its first frame, replacing whatever was playing.
+   *
+   * @param pattern the pattern to play
+   * @param looping true to start over after the last frame, false to go silent
+   */
+  public void play(CompiledPattern pattern, boolean looping) {
+    this.looping = looping;
+    position = 0;
+    this.pattern = pattern;
+  }
+
+  /** Stop playing. The player is silent until play is called again. */
+  public void stop() {
+    pattern = null;
+  }
+
+  /**
+   * Check whether a pattern is still playing.
+   *
+   * @return false once stopped or once a non-looping pattern has finished
+   */
+  public boolean isPlaying() {
+    CompiledPattern current = pattern;
+    return current != null && (looping || position < current.getFrameCount());
+  }
+
+  @Override
+  public boolean render(int[] frame, long timeNanos) {
+    CompiledPattern current = pattern;
+    if (current == null || current.getFrameCount() == 0) {
+      return false;
+    }
+    int index = position;
+    if (index >= current.getFrameCount()) {
+      if (!looping) {
+        return false;
+      }
+      index = 0;
+    }
+    current.getFrame(index, frame);
+    for (int c = current.getNumMotors(); c < frame.length; c++) {
+      frame[c] = 0;
+    }
+    position = index + 1;
+    return true;
+  }
+}
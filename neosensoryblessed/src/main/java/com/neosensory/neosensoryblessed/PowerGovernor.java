@@ -0,0 +1,376 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a streaming session within the wristband's battery budget. Sits in front of a {@link
+ * MotorFrameSink} and estimates the energy each frame costs: motor drive (intensity squared, per
+ * motor, for as long as the frame is held) and one radio write per frame sent. Periodic battery
+ * readings give the budget, the charge above a reserve spread over the time left in the session,
+ * and calibrate how much charge a unit of estimated energy really costs on this device.
+ *
+ * <p>When the estimated spend outruns the budget the governor steps in, cheapest perceptual cost
+ * first: it lowers the frame rate by merging frames that arrive too close together (each motor
+ * keeps its strongest value, so taps survive), down to half the incoming rate; only then does it
+ * scale perceived intensity, down to {@link #MIN_INTENSITY_SCALE}. A merged frame goes out with the
+ * next frame sent, or on its own once the lowered frame interval has passed, so the last frame of a
+ * source that stops is still felt. Frames that turn every motor off are never delayed (any merged
+ * frame is sent just before them), so a stream always ends with the motors off. Restrictions are
+ * relaxed again as the spend falls back under budget.
+ */
+public class PowerGovernor implements MotorFrameSink {
+
+  /** The lowest fraction of perceived intensity the governor will scale frames to. */
+  public static final float MIN_INTENSITY_SCALE = 0.7f;
+
+  // Energy is counted in motor-seconds at full drive. A write is roughly as costly as this much
+  // motor drive; the overall charge per motor-second is learned from battery readings.
+  private static final double WRITE_COST = 0.02;
+  // Starting estimate: four motors at full drive empty the battery in about 2.5 hours
+  private static final double DEFAULT_PERCENT_PER_UNIT = 100.0 / (4 * 2.5 * 3600);
+  private static final double LEARNING_RATE = 0.3;
+  // Battery drops smaller than this are too coarse to learn from
+  private static final float MIN_LEARNING_DROP_PERCENT = 1;
+  private static final float DEFAULT_RESERVE_PERCENT = 5;
+  private static final long CONTROL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long BATTERY_POLL_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final double SPEND_SMOOTHING = 0.2;
+  // Change of the restriction level per control interval per unit of over/under spend
+  private static final float CONTROL_GAIN = 0.05f;
+  private static final float MIN_RATE_FRACTION = 0.5f;
+  private static final float INPUT_PERIOD_SMOOTHING = 0.125f;
+  private static final float JITTER_MARGIN = 0.9f;
+
+  // Shared by all governors; only sends merged frames that are due
+  private static ScheduledExecutorService flushExecutor = null;
+
+  private final MotorFrameSink downstream;
+  private final DeviceStatusCache statusCache;
+  private final Runnable flushTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          flushMerged();
+        }
+      };
+  private final DeviceStatusCache.StatusCallback batteryCallback =
+      new DeviceStatusCache.StatusCallback() {
+        @Override
+        public void onStatus(DeviceStatusCache.Query query, String response) {
+          float level = DeviceStatusCache.parseBatteryLevel(response);
+          if (level >= 0) {
+            onBatteryLevel(level, System.nanoTime());
+          }
+        }
+      };
+
+  // All guarded by this
+  private final int[] merged = new int[NeoBuzzPsychophysics.NumMotors];
+  private int[] out = new int[NeoBuzzPsychophysics.NumMotors];
+  private final byte[] scaleTable = new byte[256];
+  private boolean mergePending;
+  private boolean flushScheduled;
+  private double sentFrameCost;
+  private long lastSentNanos;
+  private long accruedNanos;
+  private long lastInputNanos;
+  private long inputPeriodNanos;
+  private boolean started;
+
+  private double energy;
+  private double energyAtLastControl;
+  private long lastControlNanos;
+  private long lastPollNanos;
+  private double spendPercentPerSecond;
+  private double percentPerUnit = DEFAULT_PERCENT_PER_UNIT;
+  private float batteryPercent = -1;
+  private double energyAtBatteryReading;
+  private float reservePercent = DEFAULT_RESERVE_PERCENT;
+  private long sessionEndNanos;
+  private boolean sessionTargetSet;
+
+  // 0 = unrestricted, up to 0.5 = frame rate lowered, up to 1 = intensity scaled as well
+  private float level;
+  private float tableScale = -1;
+
+  /**
+   * Create a governor.
+   *
+   * @param downstream where frames are sent, e.g. {@link OutboundPipeline#getEncoder()} for a
+   *     governor installed with {@link OutboundPipeline#setFrameGovernor(MotorFrameSink)}
+   * @param statusCache cache to poll the battery level through, or null to supply readings with
+   *     {@link #onBatteryLevel(float, long)}
+   */
+  public PowerGovernor(MotorFrameSink downstream, DeviceStatusCache statusCache) {
+    this.downstream = downstream;
+    this.statusCache = statusCache;
+    rebuildScaleTable(1);
+  }
+
+  /**
+   * Set how long the current session should last from now. Until this is set, frames pass through
+   * unchanged and energy is only tracked.
+   *
+   * @param durationMs target remaining session length in milliseconds
+   */
+  public synchronized void setTargetSessionLength(long durationMs) {
+    sessionEndNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+    sessionTargetSet = true;
+  }
+
+  /**
+   * Set the charge to leave in the battery at the end of the session.
+   *
+   * @param percent battery percentage on [0 100], 5 by default
+   */
+  public synchronized void setReservePercent(float percent) {
+    reservePercent = percent;
+  }
+
+  /**
+   * Report a battery reading. Called automatically when a status cache was given, but readings
+   * from elsewhere are welcome too.
+   *
+   * @param percent battery state of charge in %
+   * @param timeNanos when it was read, on the System.nanoTime() clock
+   */
+  public synchronized void onBatteryLevel(float percent, long timeNanos) {
+    if (batteryPercent >= 0) {
+      float drop = batteryPercent - percent;
+      double spent = energy - energyAtBatteryReading;
+      if (drop < 0) {
+        // Charging or a noisy reading: start learning afresh from here
+        energyAtBatteryReading = energy;
+        batteryPercent = percent;
+        return;
+      }
+      if (drop < MIN_LEARNING_DROP_PERCENT || spent <= 0) {
+        // Keep the older reading as the reference until the drop is measurable
+        return;
+      }
+      percentPerUnit += (drop / spent - percentPerUnit) * LEARNING_RATE;
+    }
+    batteryPercent = percent;
+    energyAtBatteryReading = energy;
+  }
+
+  @Override
+  public synchronized boolean vibrateMotors(int[] motorValues) {
+    long now = System.nanoTime();
+    if (started) {
+      long interval = now - lastInputNanos;
+      inputPeriodNanos += (long) ((interval - inputPeriodNanos) * INPUT_PERIOD_SMOOTHING);
+    }
+    lastInputNanos = now;
+    if (now - lastControlNanos >= CONTROL_INTERVAL_NANOS) {
+      control(now);
+    }
+    int count = Math.min(motorValues.length, merged.length);
+    boolean silent = true;
+    for (int c = 0; c < motorValues.length; c++) {
+      if (motorValues[c] != 0) {
+        silent = false;
+        break;
+      }
+    }
+    if (!silent && started && level > 0 && now - lastSentNanos < minWriteIntervalNanos()) {
+      // Too soon: fold into the next frame that goes out
+      for (int c = 0; c < merged.length; c++) {
+        int value = c < count ? motorValues[c] : 0;
+        merged[c] = mergePending ? Math.max(merged[c], value) : value;
+      }
+      mergePending = true;
+      scheduleFlush(now);
+      return true;
+    }
+    if (silent && mergePending) {
+      // A tap held back for merging must still be felt before the motors go off
+      mergePending = false;
+      send(merged, merged.length, false, now);
+    }
+    return send(motorValues, motorValues.length, mergePending, now);
+  }
+
+  /**
+   * Get how strongly the governor is restricting the stream.
+   *
+   * @return 0 when unrestricted, up to 0.5 while lowering the frame rate, up to 1 while also
+   *     scaling intensity
+   */
+  public synchronized float getLevel() {
+    return level;
+  }
+
+  /**
+   * Get the fraction of perceived intensity frames are currently scaled to.
+   *
+   * @return scale on [MIN_INTENSITY_SCALE 1]
+   */
+  public synchronized float getIntensityScale() {
+    return intensityScale();
+  }
+
+  /**
+   * Get the estimated rate of battery drain caused by the stream.
+   *
+   * @return battery percentage per hour
+   */
+  public synchronized float getSpendPercentPerHour() {
+    return (float) (spendPercentPerSecond * 3600);
+  }
+
+  /**
+   * Get the drain the battery can afford to meet the session target.
+   *
+   * @return battery percentage per hour, or -1 if there is no target or battery reading yet
+   */
+  public synchronized float getBudgetPercentPerHour() {
+    double budget = budgetPercentPerSecond(System.nanoTime());
+    return budget < 0 ? -1 : (float) (budget * 3600);
+  }
+
+  // Scale and send a frame, folding in the held merge if asked, and account for its energy
+  private boolean send(int[] motorValues, int length, boolean withMerged, long now) {
+    if (out.length != length) {
+      out = new int[length];
+    }
+    int mergedCount = Math.min(length, merged.length);
+    double cost = 0;
+    for (int c = 0; c < length; c++) {
+      int value = motorValues[c] & 0xFF;
+      if (withMerged && c < mergedCount) {
+        value = Math.max(value, merged[c] & 0xFF);
+      }
+      value = scaleTable[value] & 0xFF;
+      out[c] = value;
+      cost += (value / 255.0) * (value / 255.0);
+    }
+    mergePending = false;
+    accrue(now);
+    sentFrameCost = cost;
+    energy += WRITE_COST;
+    lastSentNanos = now;
+    started = true;
+    return downstream.vibrateMotors(out);
+  }
+
+  // Send the merged frame on its own once it is due, unless a later frame has taken it along
+  private synchronized void flushMerged() {
+    flushScheduled = false;
+    if (!mergePending) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - lastSentNanos < minWriteIntervalNanos()) {
+      scheduleFlush(now);
+      return;
+    }
+    send(merged, merged.length, false, now);
+  }
+
+  private void scheduleFlush(long now) {
+    if (flushScheduled) {
+      return;
+    }
+    flushScheduled = true;
+    long delay = Math.max(0, lastSentNanos + minWriteIntervalNanos() - now);
+    flushExecutor().schedule(flushTask, delay, TimeUnit.NANOSECONDS);
+  }
+
+  private static synchronized ScheduledExecutorService flushExecutor() {
+    if (flushExecutor == null) {
+      flushExecutor =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "NeoPowerGovernor");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+    }
+    return flushExecutor;
+  }
+
+  private void control(long now) {
+    if (statusCache != null
+        && (lastPollNanos == 0 || now - lastPollNanos >= BATTERY_POLL_INTERVAL_NANOS)) {
+      lastPollNanos = now;
+      // The answer arrives later on the Bluetooth thread
+      statusCache.request(DeviceStatusCache.Query.BATTERY_LEVEL, batteryCallback);
+    }
+    accrue(now);
+    if (lastControlNanos != 0) {
+      double seconds = (now - lastControlNanos) / 1e9;
+      double spend = (energy - energyAtLastControl) * percentPerUnit / seconds;
+      spendPercentPerSecond += (spend - spendPercentPerSecond) * SPEND_SMOOTHING;
+    }
+    energyAtLastControl = energy;
+    lastControlNanos = now;
+
+    double budget = budgetPercentPerSecond(now);
+    float target = level;
+    if (budget < 0) {
+      target = 0;
+    } else if (budget == 0) {
+      target = 1;
+    } else {
+      // Over budget raises the level, under budget lowers it, in proportion to the mismatch
+      double pressure = spendPercentPerSecond / budget;
+      target = level + (float) (CONTROL_GAIN * (pressure - 1));
+    }
+    level = Math.max(0, Math.min(1, target));
+    float scale = intensityScale();
+    if (scale != tableScale) {
+      rebuildScaleTable(scale);
+    }
+  }
+
+  // Add the motor energy of the frame being held up to `now`; motors stay on until replaced
+  private void accrue(long now) {
+    if (started && now > accruedNanos) {
+      energy += sentFrameCost * ((now - accruedNanos) / 1e9);
+    }
+    accruedNanos = now;
+  }
+
+  // Shortest time between writes at the current level. Frames arriving sooner are merged; the
+  // margin keeps ordinary jitter in the producer from merging frames that are on schedule.
+  private long minWriteIntervalNanos() {
+    float rateFraction =
+        level >= 0.5f ? MIN_RATE_FRACTION : 1 - level * 2 * (1 - MIN_RATE_FRACTION);
+    return (long) (inputPeriodNanos / rateFraction * JITTER_MARGIN);
+  }
+
+  private double budgetPercentPerSecond(long now) {
+    if (!sessionTargetSet || batteryPercent < 0 || now >= sessionEndNanos) {
+      return -1;
+    }
+    double available = Math.max(0, batteryPercent - reservePercent);
+    return available / ((sessionEndNanos - now) / 1e9);
+  }
+
+  private float intensityScale() {
+    return level <= 0.5f ? 1 : 1 - (level - 0.5f) * 2 * (1 - MIN_INTENSITY_SCALE);
+  }
+
+  // Maps motor values to the value with `scale` times the perceived intensity on the Buzz curve
+  private void rebuildScaleTable(float scale) {
+    int min = CalibrationProfile.NOMINAL_MIN_INTENSITY;
+    int max = CalibrationProfile.NOMINAL_MAX_INTENSITY;
+    for (int v = 0; v < scaleTable.length; v++) {
+      if (scale >= 1 || v <= min) {
+        scaleTable[v] = (byte) v;
+        continue;
+      }
+      float drive = Math.min(1, (v - min) / (float) (max - min));
+      float perceived = (float) Math.log1p(drive * (Math.E - 1)) * scale;
+      scaleTable[v] = (byte) NeoBuzzPsychophysics.GetMotorIntensity(perceived, min, max);
+    }
+    tableScale = scale;
+  }
+}
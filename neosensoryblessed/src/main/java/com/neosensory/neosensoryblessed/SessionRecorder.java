@@ -0,0 +1,219 @@
+package com.neosensory.neosensoryblessed;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records link traffic (every outbound command and inbound CLI notification) with monotonic
+ * timestamps to a compact append-only binary file, so a user's session can later be reproduced with
+ * {@link SessionReplayer}. Recording calls only timestamp the event and append it to a lock-free
+ * queue; encoding and buffered file output happen on the recorder's own thread.
+ *
+ * <p>File format: the magic bytes "NEOREC", a version byte and the wall clock start time in
+ * milliseconds (8 bytes, big endian), followed by one record per event: a type byte ({@link
+ * #OUTBOUND} or {@link #INBOUND}), the time since the previous record in microseconds and the
+ * payload length (both unsigned LEB128 varints), then the payload bytes. Payloads are at most
+ * {@link #MAX_PAYLOAD_LENGTH} bytes; longer ones are not recorded (see {@link
+ * #getRejectedCount()}), so every file written can be read back by the replayer.
+ */
+public class SessionRecorder {
+
+  /** Record type of a command sent to the device. */
+  public static final byte OUTBOUND = 1;
+  /** Record type of a UART_TX notification received from the device. */
+  public static final byte INBOUND = 2;
+
+  static final byte[] MAGIC = {'N', 'E', 'O', 'R', 'E', 'C'};
+  static final byte FORMAT_VERSION = 1;
+  /**
+   * Longest payload a record can hold: the largest attribute value a single BLE write or
+   * notification carries.
+   */
+  public static final int MAX_PAYLOAD_LENGTH = 512;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // How long recorded events may sit in the buffer while the link is idle before being flushed
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final class Event {
+    final byte type;
+    final long timeNanos;
+    final byte[] payload;
+
+    Event(byte type, long timeNanos, byte[] payload) {
+      this.type = type;
+      this.timeNanos = timeNanos;
+      this.payload = payload;
+    }
+  }
+
+  private final MpscQueue<Event> queue = new MpscQueue<>();
+  private final DataOutputStream output;
+  private final Thread recorderThread;
+  private volatile boolean running = true;
+  private volatile IOException failure;
+  private final AtomicInteger rejected = new AtomicInteger();
+
+  private final long startNanos;
+  // Recorder thread only
+  private long lastTimeMicros;
+  private long lastFlushNanos;
+
+  /**
+   * Create a recording file (replacing any existing file) and start recording into it.
+   *
+   * @param file where to write the recording
+   * @throws IOException if the file can't be created
+   */
+  public SessionRecorder(File file) throws IOException {
+    this(new FileOutputStream(file));
+  }
+
+  /**
+   * Start recording into a stream. The stream is closed when the recorder is stopped.
+   *
+   * @param stream where to write the recording
+   * @throws IOException if the header can't be written
+   */
+  public SessionRecorder(OutputStream stream) throws IOException {
+    output = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+    output.write(MAGIC);
+    output.writeByte(FORMAT_VERSION);
+    output.writeLong(System.currentTimeMillis());
+    startNanos = System.nanoTime();
+    recorderThread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                drainLoop();
+              }
+            },
+            "NeoSessionRecorder");
+    recorderThread.setDaemon(true);
+    recorderThread.start();
+  }
+
+  /**
+   * Record a command sent to the device. Safe to call from any thread.
+   *
+   * @param payload the command bytes, at most MAX_PAYLOAD_LENGTH long. Must not be modified
+   *     afterwards.
+   */
+  public void recordOutbound(byte[] payload) {
+    record(OUTBOUND, payload);
+  }
+
+  /**
+   * Record a notification received from the device. Safe to call from any thread.
+   *
+   * @param payload the notification bytes, at most MAX_PAYLOAD_LENGTH long. Must not be modified
+   *     afterwards.
+   */
+  public void recordInbound(byte[] payload) {
+    record(INBOUND, payload);
+  }
+
+  /**
+   * Get the number of events left out of the recording for being longer than MAX_PAYLOAD_LENGTH.
+   *
+   * @return rejected event count since the recorder was created
+   */
+  public int getRejectedCount() {
+    return rejected.get();
+  }
+
+  private void record(byte type, byte[] payload) {
+    if (!running) {
+      return;
+    }
+    if (payload.length > MAX_PAYLOAD_LENGTH) {
+      // The replayer would take the record for corruption; keep the file readable instead
+      rejected.incrementAndGet();
+      return;
+    }
+    queue.offer(new Event(type, System.nanoTime(), payload));
+    LockSupport.unpark(recorderThread);
+  }
+
+  /**
+   * Stop recording, flush everything recorded so far and close the file. Blocks until the recorder
+   * thread has finished writing.
+   *
+   * @throws IOException if writing the recording failed at any point
+   */
+  public void stop() throws IOException {
+    running = false;
+    LockSupport.unpark(recorderThread);
+    try {
+      recorderThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // Recorder thread body. This is the only place the queue is consumed.
+  private void drainLoop() {
+    try {
+      while (running) {
+        if (!writeQueued()) {
+          // Flush periodically rather than per event so streaming doesn't cost a write per frame
+          long now = System.nanoTime();
+          if (now - lastFlushNanos >= FLUSH_INTERVAL_NANOS) {
+            output.flush();
+            lastFlushNanos = now;
+          }
+          LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+        }
+      }
+      writeQueued();
+      output.flush();
+    } catch (IOException e) {
+      failure = e;
+      running = false;
+    } finally {
+      try {
+        output.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+  }
+
+  private boolean writeQueued() throws IOException {
+    boolean wroteAny = false;
+    Event event;
+    while ((event = queue.poll()) != null) {
+      // Producers on different threads may enqueue slightly out of timestamp order
+      long timeMicros = Math.max(lastTimeMicros, (event.timeNanos - startNanos) / 1000);
+      long deltaMicros = timeMicros - lastTimeMicros;
+      lastTimeMicros = timeMicros;
+      output.writeByte(event.type);
+      writeVarint(deltaMicros);
+      writeVarint(event.payload.length);
+      output.write(event.payload);
+      wroteAny = true;
+    }
+    return wroteAny;
+  }
+
+  private void writeVarint(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+}
@@ -0,0 +1,195 @@
+package com.neosensory.neosensoryblessed;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays back a recording made by {@link SessionRecorder}. Outbound commands are submitted to a
+ * {@link CommandWriter} (typically driving a simulated {@link NeoTransport}) at their original
+ * relative times, optionally sped up, so that a field session's traffic can be reproduced and
+ * benchmarked off-device. Inbound notifications are handed to an optional listener at their
+ * recorded times.
+ *
+ * <p>Replay is deterministic in content and order; timing follows the recording as closely as the
+ * host's sleep resolution allows.
+ */
+public class SessionReplayer implements Closeable {
+
+  /** Receives the inbound notifications of a recording as they are replayed. */
+  public interface InboundListener {
+    /**
+     * Called for each recorded notification.
+     *
+     * @param timeMicros time of the notification since the start of the recording
+     * @param payload notification bytes
+     */
+    void onInbound(long timeMicros, byte[] payload);
+  }
+
+  private final DataInputStream input;
+  private final long startWallClockMillis;
+
+  // Current record, valid after next() returned true
+  private byte type;
+  private long timeMicros;
+  private byte[] payload;
+
+  /**
+   * Open a recording file.
+   *
+   * @param file the recording
+   * @throws IOException if the file can't be read or is not a recording
+   */
+  public SessionReplayer(File file) throws IOException {
+    this(new FileInputStream(file));
+  }
+
+  /**
+   * Open a recording from a stream. The stream is closed when the replayer is closed.
+   *
+   * @param stream the recording
+   * @throws IOException if the stream can't be read or is not a recording
+   */
+  public SessionReplayer(InputStream stream) throws IOException {
+    input = new DataInputStream(new BufferedInputStream(stream));
+    byte[] magic = new byte[SessionRecorder.MAGIC.length];
+    input.readFully(magic);
+    if (!Arrays.equals(magic, SessionRecorder.MAGIC)) {
+      throw new IOException("Not a Neosensory session recording");
+    }
+    if (input.readByte() != SessionRecorder.FORMAT_VERSION) {
+      throw new IOException("Unsupported session recording version");
+    }
+    startWallClockMillis = input.readLong();
+  }
+
+  /**
+   * Get the wall clock time at which the recording was started.
+   *
+   * @return milliseconds since the epoch
+   */
+  public long getStartWallClockMillis() {
+    return startWallClockMillis;
+  }
+
+  /**
+   * Advance to the next record.
+   *
+   * @return true if a record was read, false at the end of the recording
+   * @throws IOException if the recording can't be read or is truncated mid-record
+   */
+  public boolean next() throws IOException {
+    int nextType = input.read();
+    if (nextType < 0) {
+      return false;
+    }
+    try {
+      timeMicros += readVarint();
+      long length = readVarint();
+      // Checked before allocating, so a corrupt length can't exhaust memory
+      if (length < 0 || length > SessionRecorder.MAX_PAYLOAD_LENGTH) {
+        throw new IOException("Invalid record length " + length + " in session recording");
+      }
+      payload = new byte[(int) length];
+      input.readFully(payload);
+    } catch (EOFException e) {
+      throw new IOException("Session recording is truncated", e);
+    }
+    type = (byte) nextType;
+    return true;
+  }
+
+  /**
+   * Get the type of the current record.
+   *
+   * @return {@link SessionRecorder#OUTBOUND} or {@link SessionRecorder#INBOUND}
+   */
+  public byte getType() {
+    return type;
+  }
+
+  /**
+   * Get the time of the current record.
+   *
+   * @return microseconds since the start of the recording
+   */
+  public long getTimeMicros() {
+    return timeMicros;
+  }
+
+  /**
+   * Get the payload of the current record.
+   *
+   * @return the recorded bytes
+   */
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  /**
+   * Replay the remainder of the recording, blocking until done.
+   *
+   * @param writer receives every outbound command at its (scaled) recorded time
+   * @param listener receives every inbound notification, or null to skip them
+   * @param speed playback speed relative to the recording, e.g. 1 for original timing, 10 for ten
+   *     times faster. 0 or less replays as fast as possible.
+   * @return the number of records replayed
+   * @throws IOException if the recording can't be read
+   * @throws InterruptedException if the replaying thread is interrupted
+   */
+  public long replay(CommandWriter writer, InboundListener listener, float speed)
+      throws IOException, InterruptedException {
+    long replayed = 0;
+    long originNanos = System.nanoTime();
+    long originMicros = -1;
+    while (next()) {
+      if (originMicros < 0) {
+        originMicros = timeMicros;
+      }
+      if (speed > 0) {
+        long dueNanos =
+            originNanos + (long) (TimeUnit.MICROSECONDS.toNanos(timeMicros - originMicros) / speed);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+      }
+      if (type == SessionRecorder.OUTBOUND) {
+        writer.submit(payload);
+      } else if (type == SessionRecorder.INBOUND && listener != null) {
+        listener.onInbound(timeMicros, payload);
+      }
+      replayed++;
+    }
+    return replayed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    int shift = 0;
+    while (true) {
+      int b = input.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+      if (shift > 63) {
+        throw new IOException("Malformed varint in session recording");
+      }
+    }
+  }
+}
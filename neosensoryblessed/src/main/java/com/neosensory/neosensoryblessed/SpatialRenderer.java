@@ -0,0 +1,242 @@
+package com.neosensory.neosensoryblessed;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders any number of phantom vibration points ("sources") onto a {@link MotorLayout} using the
+ * same haptic illusion as {@link NeoBuzzPsychophysics#GetIllusionActivations}, generalised to
+ * arbitrary motor counts and layouts. Sources can be moved along smooth trajectories that are
+ * evaluated every tick, so a {@link FrameScheduler} driving the renderer animates them at the frame
+ * rate.
+ *
+ * <p>Pan-law gains and the perceptual intensity curve are precomputed into tables when the renderer
+ * is created, so rendering a tick is a table lookup per source plus one square root per motor, and
+ * writes straight into the frame it is given. Overlapping sources are combined by power so that two
+ * sources on the same motor feel like one stronger source rather than clipping immediately.
+ */
+public class SpatialRenderer implements HapticSource {
+
+  // Resolution of the precomputed intensity curve, in steps across the [0 1] intensity range
+  private static final int INTENSITY_STEPS = 255;
+
+  /** Handle to a phantom vibration point. All methods may be called from any thread. */
+  public final class PhantomSource {
+    private volatile Trajectory trajectory;
+
+    private PhantomSource(Trajectory trajectory) {
+      this.trajectory = trajectory;
+    }
+
+    /**
+     * Place the source immediately, cancelling any motion in progress.
+     *
+     * @param linearIntensity float on [0 1] of a vibrational intensity to be perceived
+     * @param location float on [0 1] for where on the layout the vibration should be perceived
+     */
+    public void set(float linearIntensity, float location) {
+      trajectory = new Trajectory(linearIntensity, location, location, System.nanoTime(), 0);
+    }
+
+    /**
+     * Change the intensity without affecting any motion in progress.
+     *
+     * @param linearIntensity float on [0 1] of a vibrational intensity to be perceived
+     */
+    public void setIntensity(float linearIntensity) {
+      Trajectory current = trajectory;
+      trajectory =
+          new Trajectory(
+              linearIntensity, current.from, current.to, current.startNanos, current.durationNanos);
+    }
+
+    /**
+     * Glide from wherever the source currently is to a new location. On a circular layout the
+     * source takes the shorter way around.
+     *
+     * @param location float on [0 1] for the destination
+     * @param durationMs time the move should take
+     */
+    public void moveTo(float location, long durationMs) {
+      long now = System.nanoTime();
+      Trajectory current = trajectory;
+      float from = current.positionAt(now);
+      float to = location;
+      if (layout.isCircular()) {
+        from = PanLaw.wrap(from);
+        if (to - from > 0.5f) {
+          to -= 1;
+        } else if (from - to > 0.5f) {
+          to += 1;
+        }
+      }
+      trajectory =
+          new Trajectory(current.intensity, from, to, now, TimeUnit.MILLISECONDS.toNanos(durationMs));
+    }
+
+    /**
+     * Get the location of the source right now.
+     *
+     * @return float on [0 1]
+     */
+    public float getLocation() {
+      float position = trajectory.positionAt(System.nanoTime());
+      return layout.isCircular() ? PanLaw.wrap(position) : position;
+    }
+
+    /** Remove the source from the renderer. */
+    public void remove() {
+      removeSource(this);
+    }
+  }
+
+  // Immutable so that a source can be retargeted from any thread without tearing
+  private static final class Trajectory {
+    final float intensity;
+    final float from;
+    final float to;
+    final long startNanos;
+    final long durationNanos;
+
+    Trajectory(float intensity, float from, float to, long startNanos, long durationNanos) {
+      this.intensity = intensity;
+      this.from = from;
+      this.to = to;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+    }
+
+    float positionAt(long timeNanos) {
+      long elapsed = timeNanos - startNanos;
+      if (durationNanos <= 0 || elapsed >= durationNanos) {
+        return to;
+      }
+      if (elapsed <= 0) {
+        return from;
+      }
+      return from + (to - from) * ((float) elapsed / durationNanos);
+    }
+  }
+
+  private static final PhantomSource[] NO_SOURCES = new PhantomSource[0];
+
+  private final MotorLayout layout;
+  private final int numMotors;
+
+  private final PanLaw panLaw;
+  // Motor intensity for each quantised linear intensity
+  private final float[] intensityCurve = new float[INTENSITY_STEPS + 1];
+
+  private volatile PhantomSource[] sources = NO_SOURCES;
+  // Per-motor accumulated power, only touched by the rendering thread
+  private final float[] power;
+
+  /** Create a renderer for a Neosensory Buzz. */
+  public SpatialRenderer() {
+    this(MotorLayout.buzz());
+  }
+
+  /**
+   * Create a renderer for an arbitrary layout, using the process-wide intensity anchors in {@link
+   * NeoBuzzPsychophysics}.
+   *
+   * @param layout the arrangement of motors to render onto
+   */
+  public SpatialRenderer(MotorLayout layout) {
+    this(layout, NeoBuzzPsychophysics.MinIntensity, NeoBuzzPsychophysics.MaxIntensity);
+  }
+
+  /**
+   * Create a renderer for an arbitrary layout.
+   *
+   * @param layout the arrangement of motors to render onto
+   * @param minIntensity int on [0 255] to anchor as the lower motor intensity for perception
+   * @param maxIntensity int on [0 255] to anchor as the max motor intensity for perception
+   */
+  public SpatialRenderer(MotorLayout layout, int minIntensity, int maxIntensity) {
+    this.layout = layout;
+    numMotors = layout.getNumMotors();
+    power = new float[numMotors];
+    panLaw = new PanLaw(layout);
+    intensityCurve[0] = 0;
+    for (int step = 1; step <= INTENSITY_STEPS; step++) {
+      intensityCurve[step] =
+          NeoBuzzPsychophysics.GetMotorIntensity(
+              (float) step / INTENSITY_STEPS, minIntensity, maxIntensity);
+    }
+  }
+
+  /**
+   * Add a stationary phantom source.
+   *
+   * @param linearIntensity float on [0 1] of a vibrational intensity to be perceived
+   * @param location float on [0 1] for where on the layout the vibration should be perceived
+   * @return a handle for moving or removing the source
+   */
+  public synchronized PhantomSource addSource(float linearIntensity, float location) {
+    PhantomSource source =
+        new PhantomSource(new Trajectory(linearIntensity, location, location, 0, 0));
+    PhantomSource[] current = sources;
+    PhantomSource[] updated = new PhantomSource[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = source;
+    sources = updated;
+    return source;
+  }
+
+  /** Remove all sources. */
+  public synchronized void clearSources() {
+    sources = NO_SOURCES;
+  }
+
+  public MotorLayout getLayout() {
+    return layout;
+  }
+
+  private synchronized void removeSource(PhantomSource source) {
+    PhantomSource[] current = sources;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == source) {
+        PhantomSource[] updated = new PhantomSource[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        sources = updated.length == 0 ? NO_SOURCES : updated;
+        return;
+      }
+    }
+  }
+
+  @Override
+  public boolean render(int[] frame, long timeNanos) {
+    PhantomSource[] snapshot = sources;
+    for (int c = 0; c < numMotors; c++) {
+      power[c] = 0;
+    }
+    boolean anyActive = false;
+    for (PhantomSource source : snapshot) {
+      Trajectory trajectory = source.trajectory;
+      float intensity = trajectory.intensity;
+      if (intensity <= 0) {
+        continue;
+      }
+      anyActive = true;
+      float motorIntensity =
+          intensity >= 1
+              ? intensityCurve[INTENSITY_STEPS]
+              : intensityCurve[Math.round(intensity * INTENSITY_STEPS)];
+      float position = trajectory.positionAt(timeNanos);
+      int step = panLaw.quantise(position);
+      float lower = motorIntensity * panLaw.lowerGain[step];
+      float upper = motorIntensity * panLaw.upperGain[step];
+      power[panLaw.lowerMotor[step]] += lower * lower;
+      power[panLaw.upperMotor[step]] += upper * upper;
+    }
+    if (!anyActive) {
+      return false;
+    }
+    for (int c = 0; c < numMotors; c++) {
+      int value = (int) Math.sqrt(power[c]);
+      frame[c] = Math.min(value, NeosensoryBlessed.MAX_VIBRATION_AMP);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,69 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CalibrationProfileTest {
+
+  @Test
+  public void roundTripsThroughBytes() {
+    CalibrationProfile profile =
+        new CalibrationProfile(
+            "alice@EB:CA:85:38:19:1D",
+            30,
+            220,
+            new float[] {1, 0.9f, 0.75f, 0.333f},
+            new float[] {0, 0.5f, 1},
+            new float[] {0, 0.3f, 1});
+    CalibrationProfile restored = CalibrationProfile.fromBytes(profile.toBytes());
+    assertEquals(profile.getName(), restored.getName());
+    assertEquals(30, restored.getMinIntensity());
+    assertEquals(220, restored.getMaxIntensity());
+    assertEquals(4, restored.getNumMotors());
+    // Gains are stored at 16-bit precision, well below one motor step
+    assertEquals(profile.compile(), restored.compile());
+  }
+
+  @Test
+  public void roundTripsDefaultCurve() {
+    CalibrationProfile profile = new CalibrationProfile("", 0, 255, null);
+    CalibrationProfile restored = CalibrationProfile.fromBytes(profile.toBytes());
+    assertEquals(NeoBuzzPsychophysics.NumMotors, restored.getNumMotors());
+    assertEquals(profile.compile(), restored.compile());
+  }
+
+  @Test
+  public void compiledMapMovesNominalAnchorsToUsers() {
+    IntensityMap map = new CalibrationProfile("user", 40, 200, null).compile();
+    assertEquals(0, map.lookup(0, 0));
+    assertEquals(40, map.lookup(0, CalibrationProfile.NOMINAL_MIN_INTENSITY));
+    assertEquals(200, map.lookup(0, CalibrationProfile.NOMINAL_MAX_INTENSITY));
+    for (int value = 1; value < 256; value++) {
+      assertTrue(map.lookup(0, value) >= map.lookup(0, value - 1));
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedBytes() {
+    byte[] bytes = new CalibrationProfile("user", 15, 255, null).toBytes();
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        CalibrationProfile.fromBytes(Arrays.copyOf(bytes, length));
+        fail("Decoded a profile truncated to " + length + " bytes");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownVersion() {
+    byte[] bytes = new CalibrationProfile("user", 15, 255, null).toBytes();
+    bytes[0] = 99;
+    CalibrationProfile.fromBytes(bytes);
+  }
+}
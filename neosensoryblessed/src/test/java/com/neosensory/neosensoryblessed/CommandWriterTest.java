@@ -0,0 +1,152 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CommandWriterTest {
+
+  private static final long WAIT_MS = 2000;
+
+  // Records every write; completions are reported by the test
+  private static final class RecordingTransport implements NeoTransport {
+    final BlockingQueue<String> writes = new LinkedBlockingQueue<>();
+    final AtomicInteger maxInFlightSeen = new AtomicInteger();
+    CommandWriter writer;
+
+    @Override
+    public boolean write(byte[] payload) {
+      int inFlight = writer.getInFlightCount();
+      if (inFlight > maxInFlightSeen.get()) {
+        maxInFlightSeen.set(inFlight);
+      }
+      writes.add(new String(payload));
+      return true;
+    }
+
+    String next() throws InterruptedException {
+      return writes.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private final RecordingTransport transport = new RecordingTransport();
+  private CommandWriter writer;
+
+  private void start(int maxInFlight, long writeTimeoutMs) {
+    writer = new CommandWriter(transport, "TestWriter", maxInFlight, writeTimeoutMs);
+    transport.writer = writer;
+  }
+
+  @After
+  public void tearDown() {
+    if (writer != null) {
+      writer.shutdown();
+    }
+  }
+
+  @Test
+  public void writesInSubmissionOrder() throws InterruptedException {
+    start(1, 60000);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(writer.submit(("cmd" + i).getBytes()));
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals("cmd" + i, transport.next());
+      assertTrue(writer.onWriteComplete(true));
+    }
+    assertEquals(0, writer.getPendingCount());
+  }
+
+  @Test
+  public void waitsForCompletionBeforeExceedingMaxInFlight() throws InterruptedException {
+    start(2, 60000);
+    for (int i = 0; i < 4; i++) {
+      writer.submit(("cmd" + i).getBytes());
+    }
+    assertEquals("cmd0", transport.next());
+    assertEquals("cmd1", transport.next());
+    assertNull(transport.writes.poll(100, TimeUnit.MILLISECONDS));
+    assertEquals(2, writer.getInFlightCount());
+    writer.onWriteComplete(true);
+    assertEquals("cmd2", transport.next());
+    writer.onWriteComplete(true);
+    assertEquals("cmd3", transport.next());
+    assertTrue(transport.maxInFlightSeen.get() <= 2);
+  }
+
+  @Test
+  public void lowPriorityWaitsForRegularTraffic() throws InterruptedException {
+    start(1, 60000);
+    writer.submit("first".getBytes());
+    assertEquals("first", transport.next());
+    // Queued while the first write is in flight, so the writer sees all of them at once
+    writer.submitLowPriority("status".getBytes());
+    writer.submit("frame1".getBytes());
+    writer.submit("frame2".getBytes());
+    assertEquals(1, writer.getLowPriorityPendingCount());
+    writer.onWriteComplete(true);
+    assertEquals("frame1", transport.next());
+    writer.onWriteComplete(true);
+    assertEquals("frame2", transport.next());
+    writer.onWriteComplete(true);
+    assertEquals("status", transport.next());
+    assertEquals(0, writer.getLowPriorityPendingCount());
+  }
+
+  @Test
+  public void lowPriorityIsWrittenWhenIdle() throws InterruptedException {
+    start(1, 60000);
+    writer.submitLowPriority("status".getBytes());
+    assertEquals("status", transport.next());
+  }
+
+  @Test
+  public void lateCompletionOfTimedOutWriteIsIgnored() throws InterruptedException {
+    start(1, 50);
+    writer.submit("lost".getBytes());
+    writer.submit("next".getBytes());
+    assertEquals("lost", transport.next());
+    // No completion for the first write, so the second follows once it times out
+    assertEquals("next", transport.next());
+    assertEquals(1, writer.getInFlightCount());
+    // The first completion to arrive belongs to the abandoned write
+    assertFalse(writer.onWriteComplete(true));
+    assertEquals(1, writer.getInFlightCount());
+    assertTrue(writer.onWriteComplete(true));
+    assertEquals(0, writer.getInFlightCount());
+  }
+
+  @Test
+  public void completionAfterClearIsIgnored() throws InterruptedException {
+    start(1, 60000);
+    writer.submit("sent".getBytes());
+    assertEquals("sent", transport.next());
+    writer.submit("queued".getBytes());
+    // Let the writer settle waiting on the in-flight write
+    Thread.sleep(50);
+    writer.clear();
+    assertFalse(writer.onWriteComplete(true));
+    assertNull(transport.writes.poll(100, TimeUnit.MILLISECONDS));
+    assertEquals(0, writer.getPendingCount());
+    writer.submit("after".getBytes());
+    assertNotNull(transport.next());
+  }
+
+  @Test
+  public void rejectsSubmitsAfterShutdown() {
+    start(1, 60000);
+    writer.shutdown();
+    assertFalse(writer.submit("late".getBytes()));
+    assertFalse(writer.submitLowPriority("late".getBytes()));
+  }
+}
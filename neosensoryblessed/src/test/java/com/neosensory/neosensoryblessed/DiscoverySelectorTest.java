@@ -0,0 +1,74 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoverySelectorTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long START = 1000 * MS;
+
+  private final DiscoverySelector selector = new DiscoverySelector(START, 3000);
+
+  @Test
+  public void emptyScanSelectsNothing() {
+    assertTrue(selector.isEmpty());
+    DiscoveryReport report = selector.select(3, null, START + 3000 * MS);
+    assertNull(report.getSelected());
+    assertEquals(0, report.getDevicesSeen());
+    assertEquals(-1, report.getFirstCandidateMillis());
+  }
+
+  @Test
+  public void ranksBySignalStrengthWithoutHistory() {
+    selector.offer("A", "Buzz", -90, START + 100 * MS);
+    selector.offer("B", "Buzz", -50, START + 200 * MS);
+    selector.offer("C", "Buzz", -70, START + 300 * MS);
+    assertFalse(selector.isEmpty());
+    DiscoveryReport report = selector.select(3, null, START + 3000 * MS);
+    List<DiscoveryCandidate> candidates = report.getCandidates();
+    assertEquals("B", report.getSelected().getAddress());
+    assertEquals("C", candidates.get(1).getAddress());
+    assertEquals("A", candidates.get(2).getAddress());
+    assertEquals(-1, report.getSelected().getPreviousQuality(), 0);
+    assertEquals(3, report.getDevicesSeen());
+    assertEquals(3000, report.getScanWindowMillis());
+    assertEquals(100, report.getFirstCandidateMillis());
+    assertEquals(3000, report.getSelectionMillis());
+  }
+
+  @Test
+  public void averagesRepeatedAdvertisements() {
+    selector.offer("A", "Buzz", -45, START);
+    selector.offer("B", "Buzz", -60, START);
+    // One strong reading doesn't outweigh a mostly weak signal
+    selector.offer("A", "Buzz", -85, START + 10 * MS);
+    selector.offer("A", "Buzz", -85, START + 20 * MS);
+    DiscoveryReport report = selector.select(2, null, START + 30 * MS);
+    DiscoveryCandidate selected = report.getSelected();
+    assertEquals("B", selected.getAddress());
+    DiscoveryCandidate other = report.getCandidates().get(1);
+    assertEquals(-215 / 3f, other.getRssi(), 1e-4f);
+    assertEquals(3, other.getAdvertisementCount());
+    assertEquals(0, other.getFirstSeenMillis());
+  }
+
+  @Test
+  public void limitsCandidatesAndKeepsDiscoveryOrderOnTies() {
+    selector.offer("A", "Buzz", -60, START);
+    selector.offer("B", "Buzz", -60, START);
+    selector.offer("C", "Buzz", -60, START);
+    DiscoveryReport report = selector.select(2, null, START);
+    assertEquals(2, report.getCandidates().size());
+    assertEquals("A", report.getCandidates().get(0).getAddress());
+    assertEquals("B", report.getCandidates().get(1).getAddress());
+    assertEquals(3, report.getDevicesSeen());
+  }
+}
@@ -0,0 +1,103 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameResamplerTest {
+
+  private static final long MS = 1000000;
+
+  private final FrameResampler resampler = new FrameResampler(4, 15, 255);
+  private final int[] frame = new int[4];
+
+  private int[] render(long timeMs) {
+    assertTrue(resampler.render(frame, timeMs * MS));
+    return frame.clone();
+  }
+
+  @Test
+  public void silentUntilPushed() {
+    assertFalse(resampler.render(frame, 0));
+    resampler.push(new int[] {1, 2, 3, 4}, 5 * MS);
+    assertArrayEquals(new int[] {1, 2, 3, 4}, render(10));
+  }
+
+  @Test
+  public void steadyValuesPassThroughWhenUpsampling() {
+    int[] values = {0, 7, 100, 255};
+    for (long t = 0; t < 400; t += 10) {
+      if (t % 40 == 0) {
+        resampler.push(values, t * MS);
+      }
+      assertArrayEquals(values, render(t));
+    }
+  }
+
+  @Test
+  public void fadeFromSilenceFollowsPerceptualCurve() {
+    resampler.push(new int[] {0, 0, 0, 0}, 0);
+    for (long t = 0; t < 40; t += 10) {
+      render(t);
+    }
+    resampler.push(new int[] {200, 200, 0, 10}, 40 * MS);
+    // Output runs one input period behind, so these fall a quarter of the way apart
+    int[] values = new int[4];
+    for (int step = 0; step < 4; step++) {
+      values[step] = render(40 + step * 10)[0];
+    }
+    assertEquals(0, values[0]);
+    for (int step = 1; step < 4; step++) {
+      assertTrue(values[step] > values[step - 1]);
+      // A fade from silence starts at the bottom of the curve, not at imperceptible values
+      assertTrue(values[step] > 15);
+      // and rises more slowly than a linear motor value fade
+      assertTrue(values[step] < 200 * step / 4);
+    }
+    // Motors that don't change pass through, and endpoints below the curve blend linearly
+    assertEquals(0, frame[2]);
+    assertEquals(Math.round(10 * 0.75f), frame[3]);
+    assertArrayEquals(new int[] {200, 200, 0, 10}, render(80));
+  }
+
+  @Test
+  public void fadeToSilenceEndsAtZero() {
+    resampler.push(new int[] {200, 0, 0, 0}, 0);
+    for (long t = 0; t < 40; t += 10) {
+      render(t);
+    }
+    resampler.push(new int[] {0, 0, 0, 0}, 40 * MS);
+    int last = 255;
+    for (int step = 0; step < 4; step++) {
+      int value = render(40 + step * 10)[0];
+      assertTrue(value < last);
+      assertTrue(value > 15);
+      last = value;
+    }
+    assertEquals(0, render(80)[0]);
+  }
+
+  @Test
+  public void decimationKeepsPeak() {
+    assertFalse(resampler.render(frame, 0));
+    for (long t = 1; t < 10; t++) {
+      resampler.push(new int[] {t == 5 ? 255 : 10, 0, 0, t == 9 ? 30 : 0}, t * MS);
+    }
+    assertArrayEquals(new int[] {255, 0, 0, 30}, render(10));
+    for (long t = 11; t < 20; t++) {
+      resampler.push(new int[] {10, 0, 0, 0}, t * MS);
+    }
+    assertArrayEquals(new int[] {10, 0, 0, 0}, render(20));
+  }
+
+  @Test
+  public void goesSilentWhenProducerStops() {
+    resampler.push(new int[] {50, 50, 50, 50}, 0);
+    assertArrayEquals(new int[] {50, 50, 50, 50}, render(50));
+    assertFalse(resampler.render(frame, 200 * MS));
+    assertFalse(resampler.render(frame, 210 * MS));
+  }
+}
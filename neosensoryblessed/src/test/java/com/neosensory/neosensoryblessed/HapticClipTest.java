@@ -0,0 +1,124 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HapticClipTest {
+
+  private static HapticClip clip(int numMotors, float frameRate, int... values) {
+    byte[] frames = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      frames[i] = (byte) values[i];
+    }
+    return new HapticClip(frames, numMotors, frameRate);
+  }
+
+  private static void assertSameFrames(HapticClip expected, HapticClip actual) {
+    assertEquals(expected.getNumMotors(), actual.getNumMotors());
+    assertEquals(expected.getFrameRate(), actual.getFrameRate(), 0);
+    assertEquals(expected.getFrameCount(), actual.getFrameCount());
+    int[] expectedFrame = new int[expected.getNumMotors()];
+    int[] actualFrame = new int[actual.getNumMotors()];
+    for (int f = 0; f < expected.getFrameCount(); f++) {
+      expected.getFrame(f, expectedFrame);
+      actual.getFrame(f, actualFrame);
+      assertArrayEquals("Frame " + f, expectedFrame, actualFrame);
+    }
+  }
+
+  @Test
+  public void roundTripsThroughBytes() {
+    HapticClip clip = clip(2, 60, 0, 0, 0, 0, 0, 0, 255, 128, 255, 128, 1, 2, 0, 0);
+    HapticClip restored = HapticClip.fromBytes(clip.toBytes());
+    assertSameFrames(clip, restored);
+    int[] frame = new int[2];
+    restored.getFrame(3, frame);
+    assertArrayEquals(new int[] {255, 128}, frame);
+  }
+
+  @Test
+  public void storesHeldFramesAsRuns() {
+    byte[] frames = new byte[4 * 1000];
+    Arrays.fill(frames, 4 * 500, frames.length, (byte) 200);
+    HapticClip clip = new HapticClip(frames, 4, 100);
+    byte[] encoded = clip.toBytes();
+    // Header plus two runs of a 2-byte count and 4 motor values
+    assertEquals(HapticClip.MAGIC.length + 1 + 1 + 4 + 4 + 2 * (2 + 4), encoded.length);
+    assertSameFrames(clip, HapticClip.fromBytes(encoded));
+  }
+
+  @Test
+  public void splitsRunsLongerThanCountAllows() {
+    HapticClip clip = new HapticClip(new byte[70000], 1, 1000);
+    HapticClip restored = HapticClip.fromBytes(clip.toBytes());
+    assertEquals(70000, restored.getFrameCount());
+  }
+
+  @Test
+  public void roundTripsEmptyClip() {
+    HapticClip restored = HapticClip.fromBytes(clip(4, 30).toBytes());
+    assertEquals(0, restored.getFrameCount());
+    assertEquals(4, restored.getNumMotors());
+  }
+
+  @Test
+  public void convertsToCompiledPattern() {
+    HapticClip clip = clip(2, 60, 10, 20, 30, 40);
+    CompiledPattern compiled = clip.toCompiledPattern();
+    assertEquals(2, compiled.getFrameCount());
+    int[] frame = new int[2];
+    compiled.getFrame(1, frame);
+    assertArrayEquals(new int[] {30, 40}, frame);
+  }
+
+  @Test
+  public void rejectsCorruptBytes() {
+    byte[] encoded = clip(2, 60, 1, 2, 3, 4, 3, 4).toBytes();
+    for (int length = 0; length < encoded.length; length++) {
+      try {
+        HapticClip.fromBytes(Arrays.copyOf(encoded, length));
+        fail("Decoded a clip truncated to " + length + " bytes");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    byte[] badMagic = encoded.clone();
+    badMagic[0] = 'X';
+    try {
+      HapticClip.fromBytes(badMagic);
+      fail("Decoded a clip without the magic");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void transcodedReleaseCarriesAcrossChunks() {
+    // A tone in the lowest band that stops shortly before the second analysis chunk starts, at a
+    // frame rate high enough that its release tail spans the chunk boundary
+    int sampleRate = 16000;
+    float frameRate = 1000;
+    int chunkFrames = 256;
+    int toneFrames = chunkFrames - 20;
+    float[] samples = new float[sampleRate];
+    for (int i = 0; i < toneFrames * sampleRate / (int) frameRate; i++) {
+      samples[i] = 0.5f * (float) Math.sin(2 * Math.PI * 100 * i / sampleRate);
+    }
+    HapticClip clip = new HapticTranscoder(frameRate).transcode(samples, sampleRate);
+    int[] previous = new int[clip.getNumMotors()];
+    int[] current = new int[clip.getNumMotors()];
+    clip.getFrame(toneFrames, previous);
+    assertTrue(previous[0] > 0);
+    for (int f = toneFrames + 1; f < chunkFrames + 40; f++) {
+      clip.getFrame(f, current);
+      // Decays smoothly rather than restarting from silence at the chunk boundary
+      assertTrue("Motor 0 jumps at frame " + f, current[0] <= previous[0]);
+      assertTrue("Motor 0 jumps at frame " + f, previous[0] - current[0] <= 8);
+      System.arraycopy(current, 0, previous, 0, current.length);
+    }
+  }
+}
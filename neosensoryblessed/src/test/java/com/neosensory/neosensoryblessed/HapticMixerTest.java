@@ -0,0 +1,99 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HapticMixerTest {
+
+  private static final int NUM_MOTORS = 4;
+
+  private static HapticSource constant(final int... values) {
+    return new HapticSource() {
+      @Override
+      public boolean render(int[] frame, long timeNanos) {
+        System.arraycopy(values, 0, frame, 0, values.length);
+        return true;
+      }
+    };
+  }
+
+  private static final HapticSource SILENT =
+      new HapticSource() {
+        @Override
+        public boolean render(int[] frame, long timeNanos) {
+          return false;
+        }
+      };
+
+  private static int[] render(HapticMixer mixer) {
+    int[] frame = new int[NUM_MOTORS];
+    assertTrue(mixer.render(frame, 0));
+    return frame;
+  }
+
+  @Test
+  public void inactiveWithoutActiveSources() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.MAX, NUM_MOTORS);
+    assertFalse(mixer.render(new int[NUM_MOTORS], 0));
+    mixer.addSource(SILENT, 0, 1);
+    assertFalse(mixer.render(new int[NUM_MOTORS], 0));
+  }
+
+  @Test
+  public void maxTakesLoudestPerMotor() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.MAX, NUM_MOTORS);
+    mixer.addSource(constant(100, 0, 200, 50), 0, 1);
+    mixer.addSource(constant(50, 80, 250, 50), 0, 1);
+    mixer.addSource(SILENT, 0, 1);
+    assertArrayEquals(new int[] {100, 80, 250, 50}, render(mixer));
+  }
+
+  @Test
+  public void saturatingSumClipsAtFullScale() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.SATURATING_SUM, NUM_MOTORS);
+    mixer.addSource(constant(100, 0, 200, 255), 0, 1);
+    mixer.addSource(constant(50, 80, 100, 255), 0, 0.5f);
+    assertArrayEquals(new int[] {125, 40, 250, 255}, render(mixer));
+  }
+
+  @Test
+  public void duckingScalesLowerPriorities() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.DUCKING, NUM_MOTORS);
+    HapticMixer.Channel alert = mixer.addSource(constant(200, 0, 0, 0), 1, 1);
+    mixer.addSource(constant(100, 100, 100, 100), 0, 1);
+    assertArrayEquals(new int[] {225, 25, 25, 25}, render(mixer));
+
+    mixer.setDuckingGain(0);
+    assertArrayEquals(new int[] {200, 0, 0, 0}, render(mixer));
+
+    // Once the top priority source goes away the rest play at full gain
+    alert.remove();
+    assertEquals(1, mixer.getSourceCount());
+    assertArrayEquals(new int[] {100, 100, 100, 100}, render(mixer));
+  }
+
+  @Test
+  public void duckingOnlyCountsActiveSources() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.DUCKING, NUM_MOTORS);
+    mixer.addSource(SILENT, 5, 1);
+    mixer.addSource(constant(100, 100, 100, 100), 0, 1);
+    assertArrayEquals(new int[] {100, 100, 100, 100}, render(mixer));
+  }
+
+  @Test
+  public void modeAndGainChangesApplyOnNextRender() {
+    HapticMixer mixer = new HapticMixer(HapticMixer.MixMode.MAX, NUM_MOTORS);
+    HapticMixer.Channel channel = mixer.addSource(constant(100, 100, 100, 100), 0, 1);
+    mixer.addSource(constant(100, 100, 100, 100), 0, 1);
+    assertArrayEquals(new int[] {100, 100, 100, 100}, render(mixer));
+    mixer.setMixMode(HapticMixer.MixMode.SATURATING_SUM);
+    channel.setGain(0.5f);
+    assertArrayEquals(new int[] {150, 150, 150, 150}, render(mixer));
+    mixer.clearSources();
+    assertFalse(mixer.render(new int[NUM_MOTORS], 0));
+  }
+}
@@ -0,0 +1,106 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HapticPatternTest {
+
+  private static int[] frame(CompiledPattern compiled, int index) {
+    int[] out = new int[compiled.getNumMotors()];
+    compiled.getFrame(index, out);
+    return out;
+  }
+
+  @Test
+  public void holdsFrame() {
+    CompiledPattern compiled = HapticPattern.frame(new int[] {1, 2, 3, 4}, 3).compile();
+    assertEquals(3, compiled.getFrameCount());
+    assertEquals(4, compiled.getNumMotors());
+    for (int f = 0; f < 3; f++) {
+      assertArrayEquals(new int[] {1, 2, 3, 4}, frame(compiled, f));
+    }
+  }
+
+  @Test
+  public void rampsLinearlyBetweenEndpoints() {
+    CompiledPattern compiled =
+        HapticPattern.ramp(new int[] {0, 200, 50, 50}, new int[] {100, 0, 50, 51}, 5).compile();
+    assertEquals(5, compiled.getFrameCount());
+    assertArrayEquals(new int[] {0, 200, 50, 50}, frame(compiled, 0));
+    assertArrayEquals(new int[] {25, 150, 50, 50}, frame(compiled, 1));
+    assertArrayEquals(new int[] {50, 100, 50, 51}, frame(compiled, 2));
+    assertArrayEquals(new int[] {100, 0, 50, 51}, frame(compiled, 4));
+  }
+
+  @Test
+  public void sequenceAndRepeatPlayInOrder() {
+    HapticPattern pulse =
+        HapticPattern.sequence(
+            HapticPattern.frame(new int[] {255, 0, 0, 0}, 1), HapticPattern.silence(2));
+    CompiledPattern compiled = HapticPattern.repeat(pulse, 3).compile();
+    assertEquals(9, compiled.getFrameCount());
+    for (int f = 0; f < 9; f++) {
+      int expected = f % 3 == 0 ? 255 : 0;
+      assertArrayEquals(new int[] {expected, 0, 0, 0}, frame(compiled, f));
+    }
+  }
+
+  @Test
+  public void parallelTakesStrongestLayer() {
+    CompiledPattern compiled =
+        HapticPattern.parallel(
+                HapticPattern.frame(new int[] {100, 0, 200, 0}, 4),
+                HapticPattern.frame(new int[] {50, 80, 250, 0}, 2))
+            .compile();
+    assertEquals(4, compiled.getFrameCount());
+    assertArrayEquals(new int[] {100, 80, 250, 0}, frame(compiled, 1));
+    // The shorter layer is silent once finished
+    assertArrayEquals(new int[] {100, 0, 200, 0}, frame(compiled, 3));
+  }
+
+  @Test
+  public void sweepFollowsIllusionActivations() {
+    CompiledPattern compiled = HapticPattern.sweep(0.8f, 0, 1, 3).compile();
+    assertEquals(3, compiled.getFrameCount());
+    assertArrayEquals(NeoBuzzPsychophysics.GetIllusionActivations(0.8f, 0), frame(compiled, 0));
+    assertArrayEquals(NeoBuzzPsychophysics.GetIllusionActivations(0.8f, 0.5f), frame(compiled, 1));
+    assertArrayEquals(NeoBuzzPsychophysics.GetIllusionActivations(0.8f, 1), frame(compiled, 2));
+  }
+
+  @Test
+  public void equalPatternsShareCompilation() {
+    HapticPattern a = HapticPattern.repeat(HapticPattern.sweep(0.5f, 0, 1, 10), 2);
+    HapticPattern b = HapticPattern.repeat(HapticPattern.sweep(0.5f, 0, 1, 10), 2);
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertSame(a.compile(), b.compile());
+    assertFalse(a.equals(HapticPattern.repeat(HapticPattern.sweep(0.5f, 0, 1, 10), 3)));
+  }
+
+  @Test
+  public void recompilesWhenIntensityCurveChanges() {
+    HapticPattern pattern = HapticPattern.sweep(0.3f, 0, 1, 5);
+    CompiledPattern nominal = pattern.compile();
+    int savedMin = NeoBuzzPsychophysics.MinIntensity;
+    try {
+      NeoBuzzPsychophysics.MinIntensity = 80;
+      CompiledPattern raised = pattern.compile();
+      assertNotSame(nominal, raised);
+      assertArrayEquals(NeoBuzzPsychophysics.GetIllusionActivations(0.3f, 0), frame(raised, 0));
+      assertFalse(frame(nominal, 0)[0] == frame(raised, 0)[0]);
+    } finally {
+      NeoBuzzPsychophysics.MinIntensity = savedMin;
+    }
+    assertArrayEquals(frame(nominal, 0), frame(pattern.compile(), 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMismatchedRamp() {
+    HapticPattern.ramp(new int[] {0, 0}, new int[] {0, 0, 0}, 2);
+  }
+}
@@ -0,0 +1,132 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HapticSynthTest {
+
+  // 10 ms frames, so envelope times below are 10 frames each
+  private static final float FPS = 100;
+
+  private final int[] frame = new int[4];
+
+  // Motor 0 value of the next frame, or 0 if the synth is silent
+  private int next(HapticSynth synth) {
+    return synth.render(frame, 0) ? frame[0] : 0;
+  }
+
+  // Motor value for a linear intensity, at the resolution the synth keeps its curve
+  private static int curveValue(float linearIntensity) {
+    return NeoBuzzPsychophysics.GetMotorIntensity(
+        Math.round(linearIntensity * 255) / 255f,
+        NeoBuzzPsychophysics.MinIntensity,
+        NeoBuzzPsychophysics.MaxIntensity);
+  }
+
+  private static HapticSynth adsrSynth() {
+    HapticSynth synth = new HapticSynth(FPS);
+    int voice = synth.addMotorVoice(0);
+    synth.setEnvelope(voice, 100, 100, 0.5f, 100);
+    return synth;
+  }
+
+  @Test
+  public void silentUntilNoteOn() {
+    HapticSynth synth = adsrSynth();
+    for (int f = 0; f < 20; f++) {
+      assertFalse(synth.render(frame, 0));
+    }
+    assertFalse(synth.isSounding(0));
+  }
+
+  @Test
+  public void followsEnvelopeStages() {
+    HapticSynth synth = adsrSynth();
+    synth.noteOn(0);
+    // Attack: rises to full level
+    int previous = 0;
+    for (int f = 0; f < 10; f++) {
+      int value = next(synth);
+      assertTrue("Attack frame " + f, value > previous);
+      previous = value;
+    }
+    assertEquals(NeoBuzzPsychophysics.MaxIntensity, previous);
+    // Decay: falls to the sustain level
+    for (int f = 0; f < 10; f++) {
+      int value = next(synth);
+      assertTrue("Decay frame " + f, value < previous);
+      previous = value;
+    }
+    int sustain = previous;
+    assertEquals(curveValue(0.5f), sustain);
+    // Sustain: held until noteOff
+    for (int f = 0; f < 30; f++) {
+      assertEquals(sustain, next(synth));
+      assertTrue(synth.isSounding(0));
+    }
+    synth.noteOff(0);
+    // Release: fades out, then the voice is idle
+    for (int f = 0; f < 9; f++) {
+      int value = next(synth);
+      assertTrue("Release frame " + f, value < previous && value > 0);
+      previous = value;
+    }
+    assertFalse(synth.render(frame, 0));
+    assertFalse(synth.isSounding(0));
+  }
+
+  @Test
+  public void isSoundingDoesNotDisturbRendering() {
+    HapticSynth polled = adsrSynth();
+    HapticSynth reference = adsrSynth();
+    polled.noteOn(0);
+    reference.noteOn(0);
+    int[] expected = new int[4];
+    for (int f = 0; f < 60; f++) {
+      if (f == 40) {
+        polled.noteOff(0);
+        reference.noteOff(0);
+      }
+      assertEquals(reference.render(expected, 0), polled.render(frame, 0));
+      assertArrayEquals("Frame " + f, expected, frame);
+      assertEquals(f < 49, polled.isSounding(0));
+    }
+  }
+
+  @Test
+  public void parameterChangeAppliesOnNextFrame() {
+    HapticSynth synth = new HapticSynth(FPS);
+    int voice = synth.addMotorVoice(1);
+    synth.noteOn(voice);
+    assertTrue(synth.render(frame, 0));
+    assertEquals(NeoBuzzPsychophysics.MaxIntensity, frame[1]);
+    // Mid block, so the rest of the block must be re-rendered
+    synth.setLevel(voice, 0.5f);
+    assertTrue(synth.render(frame, 0));
+    assertEquals(curveValue(0.5f), frame[1]);
+    assertEquals(0, frame[0]);
+  }
+
+  @Test
+  public void limitsVoices() {
+    HapticSynth synth = new HapticSynth(MotorLayout.buzz(), FPS, 2, 8);
+    assertEquals(0, synth.addMotorVoice(0));
+    assertEquals(1, synth.addPositionedVoice(0.5f));
+    assertEquals(-1, synth.addMotorVoice(2));
+    synth.removeVoice(0);
+    assertEquals(0, synth.addMotorVoice(3));
+  }
+
+  @Test
+  public void removedVoiceStopsImmediately() {
+    HapticSynth synth = adsrSynth();
+    synth.noteOn(0);
+    assertTrue(synth.render(frame, 0));
+    synth.removeAllVoices();
+    assertFalse(synth.render(frame, 0));
+  }
+}
@@ -0,0 +1,36 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LinkQualityStoreTest {
+
+  @Test
+  public void fastLinksScoreFull() {
+    assertEquals(1, LinkQualityStore.latencyScore(0), 0);
+    assertEquals(1, LinkQualityStore.latencyScore(LinkQualityStore.GOOD_ACK_LATENCY_MS), 0);
+  }
+
+  @Test
+  public void slowLinksScoreZero() {
+    assertEquals(0, LinkQualityStore.latencyScore(LinkQualityStore.POOR_ACK_LATENCY_MS), 0);
+    assertEquals(0, LinkQualityStore.latencyScore(1000), 0);
+  }
+
+  @Test
+  public void scoreFallsWithLogOfLatency() {
+    float previous = 1;
+    for (float latency = 16; latency < LinkQualityStore.POOR_ACK_LATENCY_MS; latency++) {
+      float score = LinkQualityStore.latencyScore(latency);
+      assertTrue(score < previous && score > 0);
+      previous = score;
+    }
+    // Halfway between the anchors on a log scale
+    float middle =
+        (float)
+            Math.sqrt(LinkQualityStore.GOOD_ACK_LATENCY_MS * LinkQualityStore.POOR_ACK_LATENCY_MS);
+    assertEquals(0.5f, LinkQualityStore.latencyScore(middle), 1e-4f);
+  }
+}
@@ -0,0 +1,53 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkSessionStatsTest {
+
+  private static long millis(long ms) {
+    return TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  @Test
+  public void noLatencyWithoutWrites() {
+    LinkSessionStats stats = new LinkSessionStats();
+    assertEquals(-1, stats.getAckLatencyPercentileMillis(90), 0);
+    assertEquals(0, stats.getWrites());
+  }
+
+  @Test
+  public void reportsPercentiles() {
+    LinkSessionStats stats = new LinkSessionStats();
+    for (int ms = 1; ms <= 100; ms++) {
+      stats.recordWrite(millis(ms), ms % 10 != 0);
+    }
+    assertEquals(100, stats.getWrites());
+    assertEquals(10, stats.getFailedWrites());
+    assertEquals(1, stats.getAckLatencyPercentileMillis(0), 0);
+    assertEquals(50, stats.getAckLatencyPercentileMillis(50), 0);
+    assertEquals(90, stats.getAckLatencyPercentileMillis(90), 0);
+    assertEquals(100, stats.getAckLatencyPercentileMillis(100), 0);
+  }
+
+  @Test
+  public void slowWritesLandInLastBucket() {
+    LinkSessionStats stats = new LinkSessionStats();
+    stats.recordWrite(millis(5), true);
+    stats.recordWrite(TimeUnit.SECONDS.toNanos(3), true);
+    assertEquals(250, stats.getAckLatencyPercentileMillis(100), 0);
+  }
+
+  @Test
+  public void resetForgetsSession() {
+    LinkSessionStats stats = new LinkSessionStats();
+    stats.recordWrite(millis(20), false);
+    stats.reset();
+    assertEquals(0, stats.getWrites());
+    assertEquals(0, stats.getFailedWrites());
+    assertEquals(-1, stats.getAckLatencyPercentileMillis(50), 0);
+  }
+}
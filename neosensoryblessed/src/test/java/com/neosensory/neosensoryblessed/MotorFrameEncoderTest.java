@@ -0,0 +1,67 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MotorFrameEncoderTest {
+
+  // What vibrateMotors used to send: the motor bytes Base64 encoded behind the command
+  private static String viaBase64(int[] motorValues) {
+    byte[] bytes = new byte[motorValues.length];
+    for (int i = 0; i < motorValues.length; i++) {
+      bytes[i] = (byte) motorValues[i];
+    }
+    return "motors vibrate " + Base64.getEncoder().encodeToString(bytes) + "\n";
+  }
+
+  private static String encode(int[] motorValues, IntensityMap intensityMap) {
+    return new String(
+        MotorFrameEncoder.encodeVibrate(motorValues, intensityMap), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void matchesBase64ForEveryPaddingLength() {
+    Random random = new Random(42);
+    for (int numMotors = 1; numMotors <= 12; numMotors++) {
+      for (int trial = 0; trial < 50; trial++) {
+        int[] frame = new int[numMotors];
+        for (int i = 0; i < numMotors; i++) {
+          frame[i] = random.nextInt(256);
+        }
+        assertEquals(viaBase64(frame), encode(frame, IntensityMap.identity()));
+      }
+    }
+  }
+
+  @Test
+  public void encodesBuzzFrame() {
+    assertEquals("motors vibrate AAAAAA==\n", encode(new int[4], IntensityMap.identity()));
+    assertEquals(
+        "motors vibrate /wCAEA==\n",
+        encode(new int[] {255, 0, 128, 16}, IntensityMap.identity()));
+  }
+
+  @Test
+  public void usesOnlyLowEightBits() {
+    int[] frame = {256 + 10, -1, 300, 1024};
+    assertEquals(viaBase64(frame), encode(frame, IntensityMap.identity()));
+  }
+
+  @Test
+  public void appliesIntensityMapPerMotor() {
+    // Motor 0 is halved, motor 1 inverted; motors beyond the map pass through
+    byte[] table = new byte[2 * 256];
+    for (int value = 0; value < 256; value++) {
+      table[value] = (byte) (value / 2);
+      table[256 + value] = (byte) (255 - value);
+    }
+    IntensityMap map = new IntensityMap(table, 2);
+    int[] frame = {200, 200, 200, 200};
+    assertEquals(viaBase64(new int[] {100, 55, 200, 200}), encode(frame, map));
+  }
+}
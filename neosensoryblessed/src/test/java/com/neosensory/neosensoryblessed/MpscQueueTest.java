@@ -0,0 +1,71 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscQueueTest {
+
+  @Test
+  public void pollsInOfferOrder() {
+    MpscQueue<Integer> queue = new MpscQueue<>();
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+    for (int i = 0; i < 5; i++) {
+      queue.offer(i);
+    }
+    assertFalse(queue.isEmpty());
+    assertEquals(Integer.valueOf(0), queue.peek());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), queue.poll());
+    }
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void keepsEachProducersOrderUnderContention() throws InterruptedException {
+    final int producers = 4;
+    final int perProducer = 10000;
+    final MpscQueue<int[]> queue = new MpscQueue<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int i = 0; i < perProducer; i++) {
+                    queue.offer(new int[] {producer, i});
+                  }
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+    int[] nextExpected = new int[producers];
+    int received = 0;
+    long deadline = System.nanoTime() + 10000000000L;
+    while (received < producers * perProducer) {
+      int[] value = queue.poll();
+      if (value == null) {
+        assertTrue("Timed out draining the queue", System.nanoTime() < deadline);
+        Thread.yield();
+        continue;
+      }
+      assertEquals(nextExpected[value[0]]++, value[1]);
+      received++;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(queue.poll());
+  }
+}
@@ -0,0 +1,111 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PowerGovernorTest {
+
+  private static final int[] SILENCE = {0, 0, 0, 0};
+  private static final long INPUT_PERIOD_MS = 50;
+
+  // Keeps a copy of every frame the governor lets through
+  private static final class CapturingSink implements MotorFrameSink {
+    private final List<int[]> frames = new ArrayList<>();
+
+    @Override
+    public synchronized boolean vibrateMotors(int[] motorValues) {
+      frames.add(motorValues.clone());
+      return true;
+    }
+
+    synchronized int count() {
+      return frames.size();
+    }
+
+    synchronized int[] last() {
+      return frames.get(frames.size() - 1);
+    }
+
+    synchronized int[] get(int index) {
+      return frames.get(index);
+    }
+  }
+
+  private final CapturingSink sink = new CapturingSink();
+  private final PowerGovernor governor = new PowerGovernor(sink, null);
+
+  // Stream long enough for the governor to learn the input rate, with the battery at the reserve
+  // so that it restricts as far as it can
+  private void startRestricted() throws InterruptedException {
+    governor.setTargetSessionLength(3600000);
+    governor.onBatteryLevel(5, System.nanoTime());
+    for (int i = 0; i < 20; i++) {
+      governor.vibrateMotors(new int[] {100, 100, 100, 100});
+      Thread.sleep(INPUT_PERIOD_MS);
+    }
+    assertEquals(1, governor.getLevel(), 0);
+    // Silence is always sent, so the next frame is the first after a write
+    governor.vibrateMotors(SILENCE);
+    assertArrayEquals(SILENCE, sink.last());
+  }
+
+  @Test
+  public void passesFramesThroughWhenUnrestricted() {
+    int[] frame = {10, 20, 30, 40};
+    for (int i = 0; i < 10; i++) {
+      governor.vibrateMotors(frame);
+    }
+    assertEquals(10, sink.count());
+    assertArrayEquals(frame, sink.last());
+    assertEquals(0, governor.getLevel(), 0);
+    assertEquals(1, governor.getIntensityScale(), 0);
+  }
+
+  @Test
+  public void flushesHeldFrameWhenDue() throws InterruptedException {
+    startRestricted();
+    int sent = sink.count();
+    governor.vibrateMotors(new int[] {0, 0, 0, 180});
+    // Too soon after the last write, so it is held rather than sent
+    assertEquals(sent, sink.count());
+    Thread.sleep(20 * INPUT_PERIOD_MS);
+    assertEquals(sent + 1, sink.count());
+    int[] flushed = sink.last();
+    assertEquals(0, flushed[0]);
+    // Sent at the governor's reduced intensity
+    assertTrue(flushed[3] > CalibrationProfile.NOMINAL_MIN_INTENSITY && flushed[3] < 180);
+  }
+
+  @Test
+  public void mergesHeldFramesPerMotor() throws InterruptedException {
+    startRestricted();
+    int sent = sink.count();
+    governor.vibrateMotors(new int[] {0, 0, 0, 180});
+    governor.vibrateMotors(new int[] {120, 0, 0, 40});
+    Thread.sleep(20 * INPUT_PERIOD_MS);
+    assertEquals(sent + 1, sink.count());
+    int[] flushed = sink.last();
+    assertTrue(flushed[0] > 0);
+    assertTrue(flushed[3] > flushed[0]);
+  }
+
+  @Test
+  public void sendsHeldFrameBeforeSilence() throws InterruptedException {
+    startRestricted();
+    int sent = sink.count();
+    governor.vibrateMotors(new int[] {0, 0, 0, 180});
+    governor.vibrateMotors(SILENCE);
+    assertEquals(sent + 2, sink.count());
+    assertTrue(sink.get(sent)[3] > 0);
+    assertArrayEquals(SILENCE, sink.last());
+    // Nothing is left to flush afterwards
+    Thread.sleep(20 * INPUT_PERIOD_MS);
+    assertEquals(sent + 2, sink.count());
+  }
+}
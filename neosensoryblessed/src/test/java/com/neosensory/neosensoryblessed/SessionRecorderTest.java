@@ -0,0 +1,131 @@
+package com.neosensory.neosensoryblessed;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionRecorderTest {
+
+  private static byte[] bytes(String text) {
+    return text.getBytes();
+  }
+
+  private static SessionReplayer replayer(byte[] recording) throws IOException {
+    return new SessionReplayer(new ByteArrayInputStream(recording));
+  }
+
+  // A recording header followed by the given raw record bytes
+  private static byte[] withHeader(int... recordBytes) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(stream);
+    output.write(SessionRecorder.MAGIC);
+    output.writeByte(SessionRecorder.FORMAT_VERSION);
+    output.writeLong(1234);
+    for (int b : recordBytes) {
+      output.writeByte(b);
+    }
+    return stream.toByteArray();
+  }
+
+  @Test
+  public void roundTripsEventsInOrder() throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    long before = System.currentTimeMillis();
+    SessionRecorder recorder = new SessionRecorder(stream);
+    recorder.recordOutbound(bytes("motors vibrate AAAAAA==\n"));
+    recorder.recordInbound(bytes("{\"battery_soc\": 87.5}"));
+    recorder.recordOutbound(new byte[0]);
+    recorder.recordOutbound(new byte[SessionRecorder.MAX_PAYLOAD_LENGTH]);
+    recorder.stop();
+
+    SessionReplayer replayer = replayer(stream.toByteArray());
+    assertTrue(replayer.getStartWallClockMillis() >= before);
+    assertTrue(replayer.next());
+    assertEquals(SessionRecorder.OUTBOUND, replayer.getType());
+    assertArrayEquals(bytes("motors vibrate AAAAAA==\n"), replayer.getPayload());
+    long lastTime = replayer.getTimeMicros();
+    assertTrue(replayer.next());
+    assertEquals(SessionRecorder.INBOUND, replayer.getType());
+    assertArrayEquals(bytes("{\"battery_soc\": 87.5}"), replayer.getPayload());
+    assertTrue(replayer.getTimeMicros() >= lastTime);
+    assertTrue(replayer.next());
+    assertEquals(0, replayer.getPayload().length);
+    assertTrue(replayer.next());
+    assertEquals(SessionRecorder.MAX_PAYLOAD_LENGTH, replayer.getPayload().length);
+    assertFalse(replayer.next());
+    replayer.close();
+  }
+
+  @Test
+  public void leavesOutOversizedPayloads() throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    SessionRecorder recorder = new SessionRecorder(stream);
+    recorder.recordOutbound(new byte[SessionRecorder.MAX_PAYLOAD_LENGTH + 1]);
+    recorder.recordInbound(bytes("ok"));
+    recorder.stop();
+    assertEquals(1, recorder.getRejectedCount());
+
+    SessionReplayer replayer = replayer(stream.toByteArray());
+    assertTrue(replayer.next());
+    assertArrayEquals(bytes("ok"), replayer.getPayload());
+    assertFalse(replayer.next());
+  }
+
+  @Test
+  public void ignoresEventsAfterStop() throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    SessionRecorder recorder = new SessionRecorder(stream);
+    recorder.stop();
+    recorder.recordOutbound(bytes("late"));
+    assertFalse(replayer(stream.toByteArray()).next());
+  }
+
+  @Test
+  public void rejectsCorruptLength() throws IOException {
+    // Outbound record at time 0 claiming 2047 payload bytes
+    SessionReplayer replayer = replayer(withHeader(SessionRecorder.OUTBOUND, 0, 0xFF, 0x0F));
+    try {
+      replayer.next();
+      fail("Accepted a record longer than MAX_PAYLOAD_LENGTH");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().contains("2047"));
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedRecord() throws IOException {
+    SessionReplayer replayer = replayer(withHeader(SessionRecorder.INBOUND, 0, 4, 'a', 'b'));
+    try {
+      replayer.next();
+      fail("Accepted a truncated record");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    byte[] recording = withHeader();
+    recording[0] = 'X';
+    try {
+      replayer(recording);
+      fail("Accepted a file without the recording magic");
+    } catch (IOException expected) {
+    }
+    recording = withHeader();
+    recording[SessionRecorder.MAGIC.length] = 99;
+    try {
+      replayer(recording);
+      fail("Accepted an unknown recording version");
+    } catch (IOException expected) {
+    }
+  }
+}
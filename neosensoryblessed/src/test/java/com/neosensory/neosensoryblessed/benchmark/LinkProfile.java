@@ -0,0 +1,67 @@
+package com.neosensory.neosensoryblessed.benchmark;
+
+/**
+ * Timing and reliability characteristics of a BLE link, used by {@link SimulatedBleLink}. The
+ * presets approximate phones we test against; custom profiles can be built for anything else.
+ */
+public final class LinkProfile {
+
+  /** A recent flagship negotiating a short connection interval and a large MTU. */
+  public static final LinkProfile PIXEL = new LinkProfile("Pixel 7.5 ms", 7.5f, 247, 0.01f, 1);
+
+  /** A budget phone stuck on a long connection interval with the default MTU. */
+  public static final LinkProfile BUDGET = new LinkProfile("budget 45 ms", 45f, 23, 0.03f, 5);
+
+  private final String name;
+  private final float connectionIntervalMs;
+  private final int mtu;
+  private final float packetLossRate;
+  private final float writeResponseLatencyMs;
+
+  /**
+   * Create a link profile.
+   *
+   * @param name label used in benchmark output
+   * @param connectionIntervalMs time between connection events, 7.5 ms to 4 s
+   * @param mtu negotiated ATT MTU in bytes. Each packet carries MTU - 3 bytes of payload.
+   * @param packetLossRate probability on [0 1) that a packet has to be retransmitted at the next
+   *     connection event
+   * @param writeResponseLatencyMs time the phone's stack takes to deliver a write response once it
+   *     has been received over the air
+   */
+  public LinkProfile(
+      String name,
+      float connectionIntervalMs,
+      int mtu,
+      float packetLossRate,
+      float writeResponseLatencyMs) {
+    if (connectionIntervalMs <= 0 || mtu <= 3 || packetLossRate < 0 || packetLossRate >= 1) {
+      throw new IllegalArgumentException("Invalid link profile");
+    }
+    this.name = name;
+    this.connectionIntervalMs = connectionIntervalMs;
+    this.mtu = mtu;
+    this.packetLossRate = packetLossRate;
+    this.writeResponseLatencyMs = writeResponseLatencyMs;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public float getConnectionIntervalMs() {
+    return connectionIntervalMs;
+  }
+
+  public int getMtu() {
+    return mtu;
+  }
+
+  public float getPacketLossRate() {
+    return packetLossRate;
+  }
+
+  public float getWriteResponseLatencyMs() {
+    return writeResponseLatencyMs;
+  }
+}
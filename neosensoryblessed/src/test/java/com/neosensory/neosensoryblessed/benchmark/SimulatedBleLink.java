@@ -0,0 +1,157 @@
+package com.neosensory.neosensoryblessed.benchmark;
+
+import com.neosensory.neosensoryblessed.CommandWriter;
+import com.neosensory.neosensoryblessed.NeoTransport;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link NeoTransport} that models writes with response over a BLE connection instead of using a
+ * radio, so the outbound path can be benchmarked on any JVM.
+ *
+ * <p>Connection events happen every connection interval. A payload is split into MTU - 3 byte
+ * packets, each sent at its own connection event and, if lost, retried at the next one. The device
+ * has the payload once its last packet arrives; the write response is sent at the following event
+ * and reaches the writer after the profile's response latency, at which point the next write may
+ * start. Packet loss is drawn from a seeded generator, so runs are repeatable.
+ */
+public class SimulatedBleLink implements NeoTransport {
+
+  /** Notified when a payload reaches the simulated device. */
+  public interface DeliveryListener {
+    /**
+     * Called on the link's thread, in write order, when the write response for the payload
+     * arrives.
+     *
+     * @param payload the bytes that were written
+     * @param deliveredNanos System.nanoTime() at which the device received the last packet
+     */
+    void onDelivered(byte[] payload, long deliveredNanos);
+  }
+
+  private final LinkProfile profile;
+  private final long intervalNanos;
+  private final long responseLatencyNanos;
+  private final int packetPayload;
+  private final Random random;
+  private final long originNanos = System.nanoTime();
+  private final ScheduledExecutorService executor;
+
+  private volatile CommandWriter commandWriter;
+  private volatile DeliveryListener deliveryListener;
+
+  // Writer thread only: the last connection event used to carry a packet
+  private long lastEventNanos = Long.MIN_VALUE;
+
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong packets = new AtomicLong();
+  private final AtomicLong retransmissions = new AtomicLong();
+
+  /**
+   * Create a simulated link.
+   *
+   * @param profile link timing and reliability
+   * @param seed seed for packet loss, so runs can be reproduced
+   */
+  public SimulatedBleLink(LinkProfile profile, long seed) {
+    this.profile = profile;
+    intervalNanos = (long) (profile.getConnectionIntervalMs() * 1e6);
+    responseLatencyNanos = (long) (profile.getWriteResponseLatencyMs() * 1e6);
+    packetPayload = profile.getMtu() - 3;
+    random = new Random(seed);
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "NeoSimulatedLink");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+  }
+
+  /**
+   * Set the writer to report write completions to. Must be set before the writer starts writing.
+   *
+   * @param commandWriter the writer driving this link
+   */
+  public void setCommandWriter(CommandWriter commandWriter) {
+    this.commandWriter = commandWriter;
+  }
+
+  public void setDeliveryListener(DeliveryListener deliveryListener) {
+    this.deliveryListener = deliveryListener;
+  }
+
+  public LinkProfile getProfile() {
+    return profile;
+  }
+
+  @Override
+  public boolean write(final byte[] payload) {
+    long now = System.nanoTime();
+    int packetCount = Math.max(1, (payload.length + packetPayload - 1) / packetPayload);
+    long eventNanos = nextEventAfter(Math.max(now, lastEventNanos + 1));
+    for (int packet = 0; packet < packetCount; packet++) {
+      if (packet > 0) {
+        eventNanos += intervalNanos;
+      }
+      while (random.nextFloat() < profile.getPacketLossRate()) {
+        retransmissions.incrementAndGet();
+        eventNanos += intervalNanos;
+      }
+    }
+    lastEventNanos = eventNanos;
+    final long deliveredNanos = eventNanos;
+    long completedNanos = deliveredNanos + intervalNanos + responseLatencyNanos;
+    writes.incrementAndGet();
+    packets.addAndGet(packetCount);
+    executor.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            DeliveryListener listener = deliveryListener;
+            if (listener != null) {
+              listener.onDelivered(payload, deliveredNanos);
+            }
+            CommandWriter writer = commandWriter;
+            if (writer != null) {
+              writer.onWriteComplete(true);
+            }
+          }
+        },
+        completedNanos - now,
+        TimeUnit.NANOSECONDS);
+    return true;
+  }
+
+  public long getWriteCount() {
+    return writes.get();
+  }
+
+  public long getPacketCount() {
+    return packets.get();
+  }
+
+  public long getRetransmissionCount() {
+    return retransmissions.get();
+  }
+
+  /** Stop the link's thread. Pending completions are dropped. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  // First connection event at or after the given time
+  private long nextEventAfter(long timeNanos) {
+    long sinceOrigin = timeNanos - originNanos;
+    long events = (sinceOrigin + intervalNanos - 1) / intervalNanos;
+    return originNanos + events * intervalNanos;
+  }
+}
@@ -0,0 +1,269 @@
+package com.neosensory.neosensoryblessed.benchmark;
+
+import com.neosensory.neosensoryblessed.CommandWriter;
+import com.neosensory.neosensoryblessed.OutboundPipeline;
+import com.neosensory.neosensoryblessed.SpatialRenderer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end streaming benchmark: frames are rendered, encoded and queued through the SDK's
+ * outbound pipeline and written to a {@link SimulatedBleLink} for each link profile, measuring
+ * sustained frames/sec, producer-to-motor latency and allocation per frame.
+ *
+ * <p>Skipped in the normal unit test run. Run it with {@code ./gradlew
+ * :neosensoryblessed:streamingBenchmark}, which writes JSON results to
+ * build/reports/benchmark/streaming.json. Optional regression gates, all passed as Gradle
+ * properties (e.g. {@code -Pneo.benchmark.minFps.pixel=40}):
+ *
+ * <ul>
+ *   <li>neo.benchmark.minFps.&lt;profile&gt; - minimum delivered frames/sec
+ *   <li>neo.benchmark.maxP99Ms.&lt;profile&gt; - maximum p99 latency in ms
+ *   <li>neo.benchmark.maxAllocBytesPerFrame - maximum bytes allocated per submitted frame
+ * </ul>
+ *
+ * where &lt;profile&gt; is the first word of the profile name in lower case (pixel, budget).
+ */
+public class StreamingBenchmark {
+
+  private static final String PROPERTY_PREFIX = "neo.benchmark.";
+  private static final long SEED = 0x4E454F;
+  // A producer that respects backpressure keeps at most this many frames queued
+  private static final int MAX_QUEUED_FRAMES = 2;
+
+  private static final class Result {
+    String profile;
+    float offeredFps;
+    long durationMs;
+    long submitted;
+    long dropped;
+    long delivered;
+    double deliveredFps;
+    double p50LatencyMs;
+    double p99LatencyMs;
+    double maxLatencyMs;
+    double allocBytesPerFrame;
+    long packets;
+    long retransmissions;
+  }
+
+  @Test
+  public void streamOverSimulatedLinks() throws Exception {
+    Assume.assumeTrue(
+        "Run with ./gradlew :neosensoryblessed:streamingBenchmark",
+        Boolean.getBoolean(PROPERTY_PREFIX + "enabled"));
+    long durationMs = Long.getLong(PROPERTY_PREFIX + "durationMs", 5000);
+    float offeredFps = Float.parseFloat(System.getProperty(PROPERTY_PREFIX + "offeredFps", "60"));
+
+    List<Result> results = new ArrayList<>();
+    for (LinkProfile profile : new LinkProfile[] {LinkProfile.PIXEL, LinkProfile.BUDGET}) {
+      // Warm up the JIT on the same path before measuring
+      run(profile, offeredFps, durationMs / 4);
+      results.add(run(profile, offeredFps, durationMs));
+    }
+
+    String json = toJson(results);
+    System.out.println(json);
+    String output = System.getProperty(PROPERTY_PREFIX + "output");
+    if (output != null) {
+      writeFile(new File(output), json);
+    }
+    checkGates(results);
+  }
+
+  private Result run(LinkProfile profile, float offeredFps, long durationMs)
+      throws InterruptedException {
+    final SimulatedBleLink link = new SimulatedBleLink(profile, SEED);
+    CommandWriter writer = new CommandWriter(link, "NeoBenchmarkWriter");
+    link.setCommandWriter(writer);
+    OutboundPipeline pipeline = new OutboundPipeline(writer);
+
+    int capacity = (int) (offeredFps * durationMs / 1000) + 16;
+    final long[] submitNanos = new long[capacity];
+    final long[] latencyNanos = new long[capacity];
+    final AtomicInteger delivered = new AtomicInteger();
+    link.setDeliveryListener(
+        new SimulatedBleLink.DeliveryListener() {
+          @Override
+          public void onDelivered(byte[] payload, long deliveredNanos) {
+            // Nothing is dropped once queued, so deliveries arrive in submission order
+            int index = delivered.getAndIncrement();
+            if (index < latencyNanos.length) {
+              latencyNanos[index] = deliveredNanos - submitNanos[index];
+            }
+          }
+        });
+
+    // A moving phantom point, so each frame goes through the renderer and encoder like an app's
+    SpatialRenderer renderer = new SpatialRenderer();
+    SpatialRenderer.PhantomSource source = renderer.addSource(0.8f, 0);
+    source.moveTo(1, durationMs);
+    int[] frame = new int[renderer.getLayout().getNumMotors()];
+
+    long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / offeredFps);
+    long allocatedBefore = totalAllocatedBytes();
+    long start = System.nanoTime();
+    long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+    int submitted = 0;
+    int dropped = 0;
+    for (long due = start; due < end && submitted < capacity; due += periodNanos) {
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (writer.getPendingCount() >= MAX_QUEUED_FRAMES) {
+        dropped++;
+        continue;
+      }
+      long now = System.nanoTime();
+      renderer.render(frame, now);
+      submitNanos[submitted++] = now;
+      pipeline.vibrateMotors(frame);
+    }
+    long allocatedAfter = totalAllocatedBytes();
+    // Let the frames still in flight drain before reading the results
+    long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (delivered.get() < submitted && System.nanoTime() < drainDeadline) {
+      Thread.sleep(5);
+    }
+    long elapsed = System.nanoTime() - start;
+    writer.shutdown();
+    link.shutdown();
+
+    Result result = new Result();
+    result.profile = profile.getName();
+    result.offeredFps = offeredFps;
+    result.durationMs = durationMs;
+    result.submitted = submitted;
+    result.dropped = dropped;
+    result.delivered = Math.min(delivered.get(), submitted);
+    result.deliveredFps = result.delivered / (elapsed / 1e9);
+    long[] latencies = Arrays.copyOf(latencyNanos, (int) result.delivered);
+    Arrays.sort(latencies);
+    result.p50LatencyMs = percentile(latencies, 0.50) / 1e6;
+    result.p99LatencyMs = percentile(latencies, 0.99) / 1e6;
+    result.maxLatencyMs = latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6;
+    result.allocBytesPerFrame =
+        allocatedBefore < 0 || submitted == 0
+            ? -1
+            : (double) (allocatedAfter - allocatedBefore) / submitted;
+    result.packets = link.getPacketCount();
+    result.retransmissions = link.getRetransmissionCount();
+    return result;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  // Bytes allocated by all live threads, or -1 if the JVM can't report it
+  private static long totalAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+    if (!allocation.isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : allocation.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  private static String profileKey(String profileName) {
+    return profileName.split(" ")[0].toLowerCase(Locale.US);
+  }
+
+  private static void checkGates(List<Result> results) {
+    String maxAlloc = System.getProperty(PROPERTY_PREFIX + "maxAllocBytesPerFrame");
+    for (Result result : results) {
+      String key = profileKey(result.profile);
+      String minFps = System.getProperty(PROPERTY_PREFIX + "minFps." + key);
+      String maxP99 = System.getProperty(PROPERTY_PREFIX + "maxP99Ms." + key);
+      if (minFps != null) {
+        assertTrue(
+            result.profile + " delivered " + result.deliveredFps + " fps",
+            result.deliveredFps >= Double.parseDouble(minFps));
+      }
+      if (maxP99 != null) {
+        assertTrue(
+            result.profile + " p99 latency " + result.p99LatencyMs + " ms",
+            result.p99LatencyMs <= Double.parseDouble(maxP99));
+      }
+      if (maxAlloc != null && result.allocBytesPerFrame >= 0) {
+        assertTrue(
+            result.profile + " allocated " + result.allocBytesPerFrame + " bytes/frame",
+            result.allocBytesPerFrame <= Double.parseDouble(maxAlloc));
+      }
+    }
+  }
+
+  private static String toJson(List<Result> results) {
+    StringBuilder json = new StringBuilder("{\n  \"results\": [\n");
+    for (int i = 0; i < results.size(); i++) {
+      Result r = results.get(i);
+      json.append(
+          String.format(
+              Locale.US,
+              "    {\"profile\": \"%s\", \"offeredFps\": %.1f, \"durationMs\": %d, "
+                  + "\"submitted\": %d, \"dropped\": %d, \"delivered\": %d, "
+                  + "\"deliveredFps\": %.2f, \"p50LatencyMs\": %.3f, \"p99LatencyMs\": %.3f, "
+                  + "\"maxLatencyMs\": %.3f, \"allocBytesPerFrame\": %.1f, \"packets\": %d, "
+                  + "\"retransmissions\": %d}",
+              r.profile,
+              r.offeredFps,
+              r.durationMs,
+              r.submitted,
+              r.dropped,
+              r.delivered,
+              r.deliveredFps,
+              r.p50LatencyMs,
+              r.p99LatencyMs,
+              r.maxLatencyMs,
+              r.allocBytesPerFrame,
+              r.packets,
+              r.retransmissions));
+      json.append(i < results.size() - 1 ? ",\n" : "\n");
+    }
+    return json.append("  ]\n}\n").toString();
+  }
+
+  private static void writeFile(File file, String contents) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writer.write(contents);
+    }
+  }
+}